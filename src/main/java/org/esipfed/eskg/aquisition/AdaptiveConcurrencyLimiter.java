@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of requests in flight to a remote service using additive
+ * increase, multiplicative decrease (AIMD). Every healthy response raises the
+ * limit by roughly one request per round of responses, whilst a
+ * <code>429 Too Many Requests</code> or <code>503 Service Unavailable</code>
+ * response, a failed request, or a p95 latency rising well above the best
+ * observed p95 halves it. A <code>Retry-After</code> header pauses every new
+ * request until the time given by the server. The limiter is configured with
+ * <ul>
+ * <li><b>eskg.harvest.concurrency</b>; the maximum limit.</li>
+ * <li><b>eskg.harvest.minConcurrency</b>; the minimum limit.</li>
+ * <li><b>eskg.harvest.initialConcurrency</b>; the limit at start up.</li>
+ * <li><b>eskg.harvest.latencyTolerance</b>; how many times the best observed
+ * p95 latency the current p95 may reach before the limit is cut.</li>
+ * </ul>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+  private static final int LATENCY_WINDOW = 64;
+
+  private static final double DECREASE_FACTOR = 0.5;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition available = lock.newCondition();
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final double latencyTolerance;
+
+  private double limit;
+
+  private int inFlight;
+
+  private long pausedUntil;
+
+  private long lastDecrease;
+
+  private final long[] latencies = new long[LATENCY_WINDOW];
+
+  private int latencyCount;
+
+  private long bestP95 = Long.MAX_VALUE;
+
+  private long currentP95;
+
+  /**
+   * @param minLimit
+   *          the lowest the limit may be cut to
+   * @param maxLimit
+   *          the highest the limit may grow to
+   * @param initialLimit
+   *          the limit at start up
+   * @param latencyTolerance
+   *          how many times the best observed p95 latency the current p95 may
+   *          reach before the limit is cut
+   */
+  public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, int initialLimit, double latencyTolerance) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    this.latencyTolerance = latencyTolerance;
+  }
+
+  /**
+   * Creates a limiter from runtime properties.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   * @return the configured limiter
+   */
+  public static AdaptiveConcurrencyLimiter fromProperties(Properties props) {
+    int max = Integer.parseInt(props.getProperty("eskg.harvest.concurrency", "8").trim());
+    int min = Integer.parseInt(props.getProperty("eskg.harvest.minConcurrency", "1").trim());
+    int initial = Integer.parseInt(props.getProperty("eskg.harvest.initialConcurrency", "2").trim());
+    double tolerance = Double.parseDouble(props.getProperty("eskg.harvest.latencyTolerance", "2.0").trim());
+    return new AdaptiveConcurrencyLimiter(min, max, initial, tolerance);
+  }
+
+  /**
+   * Blocks until a request may be sent, that is until fewer requests than the
+   * current limit are in flight and any <code>Retry-After</code> pause has
+   * elapsed. Every successful call must be paired with {@link #release()}.
+   *
+   * @throws InterruptedException
+   *           if interrupted whilst waiting
+   */
+  public void acquire() throws InterruptedException {
+    lock.lock();
+    try {
+      while (true) {
+        long pause = pausedUntil - System.currentTimeMillis();
+        if (pause > 0) {
+          available.await(pause, TimeUnit.MILLISECONDS);
+        } else if (inFlight >= (int) limit) {
+          available.await();
+        } else {
+          inFlight++;
+          return;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the permit obtained by {@link #acquire()}.
+   */
+  public void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adjusts the limit following a response.
+   *
+   * @param latencyMillis
+   *          time taken to receive the response
+   * @param statusCode
+   *          the response status
+   * @param retryAfter
+   *          the value of the <code>Retry-After</code> header, or null
+   */
+  public void onResponse(long latencyMillis, int statusCode, String retryAfter) {
+    lock.lock();
+    try {
+      if (retryAfter != null) {
+        pause(retryAfter);
+      }
+      if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == 429) {
+        decrease("HTTP " + statusCode);
+        return;
+      }
+      if (recordLatency(latencyMillis) && currentP95 > bestP95 * latencyTolerance) {
+        decrease("p95 latency " + currentP95 + "ms exceeds " + latencyTolerance + "x best " + bestP95 + "ms");
+        return;
+      }
+      // additive increase, roughly +1 once every request at the current limit has completed
+      limit = Math.min(maxLimit, limit + 1 / limit);
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a request abandoned before its response arrived, such as the
+   * losing request of a hedged pair. The time waited is recorded as a latency,
+   * being a lower bound on the true latency, such that the slowest requests
+   * are not missing from the p95. The limit is not adjusted.
+   *
+   * @param latencyMillis
+   *          time waited before the request was abandoned
+   */
+  public void onAbandoned(long latencyMillis) {
+    lock.lock();
+    try {
+      recordLatency(latencyMillis);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Cuts the limit following a request which failed without a response, such
+   * as a connect or read timeout.
+   */
+  public void onFailure() {
+    lock.lock();
+    try {
+      decrease("request failure");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the current limit
+   */
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests currently in flight
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the p95 latency in milliseconds of the most recent window of
+   *         responses
+   */
+  public long getP95() {
+    lock.lock();
+    try {
+      return currentP95;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void decrease(String reason) {
+    long now = System.currentTimeMillis();
+    // requests in flight when the limit was cut will report the same
+    // congestion, only cut once per window of responses
+    if (now - lastDecrease < Math.max(currentP95, 100)) {
+      return;
+    }
+    lastDecrease = now;
+    double previous = limit;
+    limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+    LOG.info("Reducing concurrency from {} to {} due to {}", (int) previous, (int) limit, reason);
+  }
+
+  /**
+   * @return true if a window of latencies has just been completed and the
+   *         p95 recalculated
+   */
+  private boolean recordLatency(long latencyMillis) {
+    latencies[latencyCount++] = latencyMillis;
+    if (latencyCount < LATENCY_WINDOW) {
+      return false;
+    }
+    long[] sorted = latencies.clone();
+    Arrays.sort(sorted);
+    currentP95 = sorted[(int) Math.ceil(LATENCY_WINDOW * 0.95) - 1];
+    bestP95 = Math.min(bestP95, Math.max(currentP95, 1));
+    latencyCount = 0;
+    return true;
+  }
+
+  /**
+   * Parses a <code>Retry-After</code> header value in either of its forms, a
+   * number of seconds or an HTTP-date.
+   *
+   * @param retryAfter
+   *          the header value
+   * @return the milliseconds to wait, zero for a date already passed, or -1 if
+   *         the value is malformed
+   */
+  static long retryAfterMillis(String retryAfter) {
+    try {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+    } catch (NumberFormatException e) {
+      Date date = DateUtils.parseDate(retryAfter.trim());
+      return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+  }
+
+  private void pause(String retryAfter) {
+    long delay = retryAfterMillis(retryAfter);
+    if (delay < 0) {
+      LOG.debug("Ignoring malformed Retry-After: {}", retryAfter);
+      return;
+    }
+    long until = System.currentTimeMillis() + delay;
+    if (until > pausedUntil) {
+      pausedUntil = until;
+      LOG.info("Pausing requests for {}ms as requested by Retry-After.", until - System.currentTimeMillis());
+    }
+  }
+
+}
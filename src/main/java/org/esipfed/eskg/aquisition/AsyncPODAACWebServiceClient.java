@@ -0,0 +1,429 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.esipfed.eskg.mapper.ontology.PODAACOntologyMapper;
+import org.esipfed.eskg.structures.DIF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A non-blocking client for the PO.DAAC WebServices. Requests are multiplexed
+ * over a small number of I/O dispatch threads by a non-blocking HTTP client,
+ * such that thousands of requests may be outstanding without a thread waiting
+ * on each. Every call returns a {@link CompletableFuture}, allowing callers to
+ * compose fetching, parsing and mapping. Response bodies are buffered by the
+ * I/O threads and parsed on a separate pool, so a slow parse never stalls the
+ * network. The client shares the <code>eskg.http.*</code> timeouts and
+ * <code>eskg.http.compression</code> setting of {@link PooledHttpClient}, and
+ * is additionally configured with
+ * <ul>
+ * <li><b>eskg.async.ioThreads</b>; number of I/O dispatch threads.</li>
+ * <li><b>eskg.async.maxTotal</b>; maximum number of open connections, further
+ * requests queue without holding a thread.</li>
+ * <li><b>eskg.async.maxPerRoute</b>; maximum number of open connections per
+ * host.</li>
+ * <li><b>eskg.async.parseThreads</b>; number of threads parsing responses,
+ * defaults to the number of available processors.</li>
+ * </ul>
+ */
+public class AsyncPODAACWebServiceClient implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncPODAACWebServiceClient.class);
+
+  private static final String USER_AGENT = "ESKG PO.DAAC WebService Client";
+
+  private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  private static final int THROTTLED_RETRIES = 5;
+
+  private static final int REQUEST_RETRIES = 3;
+
+  private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+  private final Properties props;
+
+  private final PoolingNHttpClientConnectionManager connectionManager;
+
+  private final CloseableHttpAsyncClient client;
+
+  private final ExecutorService parseExecutor;
+
+  private final ScheduledExecutorService timer;
+
+  private final long totalTimeout;
+
+  private final String datasetSearch;
+
+  /**
+   * Creates a client configured from <code>eskg.properties</code>, with any
+   * of the supplied properties taking precedence, and starts its I/O
+   * dispatch threads.
+   *
+   * @param overrides
+   *          properties overriding those in <code>eskg.properties</code>
+   */
+  public AsyncPODAACWebServiceClient(Properties overrides) {
+    props = PODAACWebServiceClient.loadProperties();
+    props.putAll(overrides);
+    datasetSearch = PODAACWebServiceClient.datasetSearchUrl(props);
+    totalTimeout = getInt("eskg.http.totalTimeout", 120000);
+
+    IOReactorConfig reactorConfig = IOReactorConfig.custom()
+        .setIoThreadCount(getInt("eskg.async.ioThreads", 2))
+        .setConnectTimeout(getInt("eskg.http.connectTimeout", 10000))
+        .setSoTimeout(getInt("eskg.http.socketTimeout", 30000))
+        .build();
+    try {
+      connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+    } catch (IOReactorException e) {
+      throw new RuntimeException(e);
+    }
+    connectionManager.setMaxTotal(getInt("eskg.async.maxTotal", 512));
+    connectionManager.setDefaultMaxPerRoute(getInt("eskg.async.maxPerRoute", 256));
+
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(getInt("eskg.http.connectTimeout", 10000))
+        .setSocketTimeout(getInt("eskg.http.socketTimeout", 30000))
+        // queued requests wait for a connection without holding a thread, the
+        // total timeout bounds how long they wait
+        .setConnectionRequestTimeout(0)
+        .build();
+    HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .setKeepAliveStrategy(PooledHttpClient.keepAliveStrategy(getInt("eskg.http.keepAlive", 30000)))
+        .disableConnectionState()
+        .setUserAgent(USER_AGENT);
+    if (Boolean.parseBoolean(props.getProperty("eskg.http.compression", "true").trim())) {
+      builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+          request.addHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+        }
+      });
+    }
+    client = builder.build();
+    client.start();
+
+    AtomicInteger parseThreads = new AtomicInteger();
+    parseExecutor = Executors.newFixedThreadPool(getInt("eskg.async.parseThreads", Runtime.getRuntime().availableProcessors()), r -> {
+      Thread t = new Thread(r, "eskg-async-parse-" + parseThreads.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "eskg-async-timer");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Executes a query without blocking. A request throttled by the server with
+   * <code>503</code> or <code>429</code> is retried once any
+   * <code>Retry-After</code> has elapsed, and a request which has not completed
+   * within <code>eskg.http.totalTimeout</code>, however many attempts it has
+   * taken, is aborted.
+   *
+   * @param url
+   *          the URL to query
+   * @return the decoded response body, or a failed future if the request
+   *         fails or the server responds with an error
+   */
+  public CompletableFuture<InputStream> execute(String url) {
+    CompletableFuture<InputStream> result = new CompletableFuture<>();
+    // the attempt in progress, replaced by each retry
+    AtomicReference<Future<HttpResponse>> pending = new AtomicReference<>();
+    // a single deadline for every attempt, such that retries share the total
+    // timeout rather than each starting it afresh
+    Future<?> abort = timer.schedule(() -> {
+      if (result.completeExceptionally(new TimeoutException("Aborted " + url + " after " + totalTimeout + " ms"))) {
+        cancel(pending);
+      }
+    }, totalTimeout, TimeUnit.MILLISECONDS);
+    result.whenComplete((body, e) -> {
+      abort.cancel(false);
+      if (result.isCancelled()) {
+        cancel(pending);
+      }
+    });
+    execute(url, 0, result, pending);
+    return result;
+  }
+
+  private void execute(String url, int attempt, CompletableFuture<InputStream> result, AtomicReference<Future<HttpResponse>> pending) {
+    if (result.isDone()) {
+      // aborted or cancelled whilst awaiting a retry
+      return;
+    }
+    LOG.debug("Executing: {}", url);
+    pending.set(client.execute(new HttpGet(url), new FutureCallback<HttpResponse>() {
+      @Override
+      public void completed(HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (isThrottled(statusCode) && attempt < THROTTLED_RETRIES) {
+          long delay = retryAfterMillis(response.getFirstHeader(HttpHeaders.RETRY_AFTER));
+          LOG.warn("PO.DAAC throttled {} with HTTP {}, retrying in {} ms.", url, statusCode, delay);
+          timer.schedule(() -> execute(url, attempt + 1, result, pending), delay, TimeUnit.MILLISECONDS);
+          return;
+        }
+        try {
+          result.complete(body(response));
+        } catch (IOException | RuntimeException e) {
+          result.completeExceptionally(e);
+        }
+      }
+
+      @Override
+      public void failed(Exception e) {
+        // typically a pooled connection closed by the server whilst idle, GETs
+        // are idempotent so are resent as the blocking client's retry handler does
+        if (isRetriable(e) && attempt < REQUEST_RETRIES) {
+          LOG.debug("I/O error executing {}, retrying.", url, e);
+          execute(url, attempt + 1, result, pending);
+          return;
+        }
+        result.completeExceptionally(e);
+      }
+
+      @Override
+      public void cancelled() {
+        result.cancel(false);
+      }
+    }));
+    if (result.isDone()) {
+      // aborted whilst this attempt was being submitted
+      cancel(pending);
+    }
+  }
+
+  private static void cancel(AtomicReference<Future<HttpResponse>> pending) {
+    Future<HttpResponse> attempt = pending.get();
+    if (attempt != null) {
+      attempt.cancel(true);
+    }
+  }
+
+  private static InputStream body(HttpResponse response) throws IOException {
+    int statusCode = response.getStatusLine().getStatusCode();
+    if (statusCode >= HttpStatus.SC_BAD_REQUEST) {
+      throw new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase());
+    }
+    HttpEntity entity = response.getEntity();
+    if (entity == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    Header contentEncoding = entity.getContentEncoding();
+    String encoding = contentEncoding != null ? contentEncoding.getValue().trim().toLowerCase(Locale.ROOT) : null;
+    // the body has already been buffered by the response consumer
+    return PooledHttpClient.decode(entity.getContent(), encoding);
+  }
+
+  /**
+   * @return true for the I/O errors the blocking client's default retry
+   *         handler would retry
+   */
+  private static boolean isRetriable(Exception e) {
+    return e instanceof IOException && !(e instanceof InterruptedIOException) && !(e instanceof UnknownHostException)
+        && !(e instanceof ConnectException) && !(e instanceof SSLException);
+  }
+
+  private static boolean isThrottled(int statusCode) {
+    return statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == 429;
+  }
+
+  private static long retryAfterMillis(Header retryAfter) {
+    if (retryAfter != null) {
+      long delay = AdaptiveConcurrencyLimiter.retryAfterMillis(retryAfter.getValue());
+      if (delay >= 0) {
+        return delay;
+      }
+      LOG.debug("Ignoring malformed Retry-After: {}", retryAfter.getValue());
+    }
+    return DEFAULT_RETRY_AFTER_MILLIS;
+  }
+
+  /**
+   * Retrieves and parses a single GCMD record without blocking. Parsing takes
+   * place on the parse pool once the body has been received.
+   *
+   * @param gcmdLink
+   *          the GCMD Metadata link of the dataset
+   * @return the parsed record
+   */
+  public CompletableFuture<DIF> retrieveGCMDRecord(String gcmdLink) {
+    return execute(gcmdLink).thenApplyAsync(body -> {
+      try (InputStream in = body) {
+        return PODAACWebServiceClient.parseGCMDXML(in);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, parseExecutor);
+  }
+
+  /**
+   * Searches the Dataset Search WebService without blocking. Once the first
+   * page has reported the size of the catalog every further page is requested
+   * at once.
+   *
+   * @return the distinct GCMD Metadata link of every dataset
+   */
+  public CompletableFuture<List<String>> searchDatasets() {
+    Set<String> seenDatasets = ConcurrentHashMap.newKeySet();
+    List<String> gcmdLinks = new ArrayList<>();
+    // links are only added from the parse pool, one page at a time
+    Object lock = new Object();
+    return searchPage(datasetSearch, seenDatasets, gcmdLinks, lock).thenCompose(firstPage -> {
+      List<Long> startIndexes = PODAACWebServiceClient.remainingStartIndexes(firstPage);
+      LOG.info("Dataset Search reported {} results, {} further page(s) to fetch", firstPage.getTotalResults(), startIndexes.size());
+      List<CompletableFuture<DatasetSearchPage>> pages = new ArrayList<>();
+      for (Long startIndex : startIndexes) {
+        pages.add(searchPage(datasetSearch + "&startIndex=" + startIndex, seenDatasets, gcmdLinks, lock));
+      }
+      return CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0]));
+    }).thenApply(done -> {
+      LOG.info("Dataset Search returned {} distinct datasets", gcmdLinks.size());
+      return gcmdLinks;
+    });
+  }
+
+  private CompletableFuture<DatasetSearchPage> searchPage(String url, Set<String> seenDatasets, List<String> gcmdLinks, Object lock) {
+    return execute(url).thenApplyAsync(body -> {
+      try (InputStream in = body) {
+        return PODAACWebServiceClient.parseDatasetSearchAtomXML(in, gcmdLink -> {
+          if (seenDatasets.add(PODAACWebServiceClient.datasetKey(gcmdLink))) {
+            synchronized (lock) {
+              gcmdLinks.add(gcmdLink);
+            }
+          }
+        });
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, parseExecutor);
+  }
+
+  /**
+   * Searches the catalog and retrieves every GCMD record without blocking. A
+   * record which cannot be retrieved is logged and omitted.
+   *
+   * @return every record retrieved
+   */
+  public CompletableFuture<List<DIF>> fetchDatasets() {
+    return searchDatasets().thenCompose(gcmdLinks -> {
+      List<CompletableFuture<DIF>> records = new ArrayList<>(gcmdLinks.size());
+      for (String gcmdLink : gcmdLinks) {
+        records.add(retrieveGCMDRecord(gcmdLink).exceptionally(e -> {
+          LOG.error("Error retrieving GCMD record {}", gcmdLink, e);
+          return null;
+        }));
+      }
+      return CompletableFuture.allOf(records.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+        List<DIF> difs = new ArrayList<>(records.size());
+        for (CompletableFuture<DIF> record : records) {
+          DIF dif = record.join();
+          if (dif != null) {
+            difs.add(dif);
+          }
+        }
+        return difs;
+      });
+    });
+  }
+
+  /**
+   * @return the properties the client was configured with
+   */
+  public Properties getProperties() {
+    return props;
+  }
+
+  private int getInt(String key, int defaultValue) {
+    return Integer.parseInt(props.getProperty(key, Integer.toString(defaultValue)).trim());
+  }
+
+  /**
+   * Stops the I/O dispatch threads, closing every connection.
+   */
+  @Override
+  public void close() throws IOException {
+    LOG.info("Closing asynchronous HTTP connection pool: {}", connectionManager.getTotalStats());
+    timer.shutdownNow();
+    parseExecutor.shutdownNow();
+    client.close();
+  }
+
+  /**
+   * Harvests every PO.DAAC dataset asynchronously and maps them to the model.
+   * Any <code>eskg.*</code> system property overrides the corresponding
+   * property in <code>eskg.properties</code>.
+   *
+   * @param args
+   *          no args required
+   * @throws IOException
+   *           if there is an issue querying the PO.DAAC Webservice
+   */
+  public static void main(String[] args) throws IOException {
+    try (AsyncPODAACWebServiceClient client = new AsyncPODAACWebServiceClient(PODAACWebServiceClient.systemOverrides())) {
+      long start = System.nanoTime();
+      List<DIF> difs = client.fetchDatasets().join();
+      LOG.info("Retrieved {} GCMD records in {} ms", difs.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      new PODAACOntologyMapper().map(difs, client.getProperties());
+    }
+  }
+
+}
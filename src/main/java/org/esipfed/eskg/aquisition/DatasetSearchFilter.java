@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * Restricts a harvest to the datasets matching a set of Dataset Search
+ * parameters, such that a single region, period, mission or processing level
+ * can be refreshed without paging through the whole catalog. A filtered
+ * harvest is partial; the records it retrieves are merged into the existing
+ * graph and records it did not retrieve are kept. The filter is configured with
+ * <ul>
+ * <li><b>eskg.search.bbox</b>; a bounding box as
+ * <code>west,south,east,north</code> in decimal degrees.</li>
+ * <li><b>eskg.search.startTime</b> and <b>eskg.search.endTime</b>; the period
+ * datasets must overlap, as an ISO 8601 instant or date.</li>
+ * <li><b>eskg.search.shortName</b>; the short name of a dataset.</li>
+ * <li><b>eskg.search.processingLevel</b>; a processing level such as
+ * <code>2</code> or <code>4</code>.</li>
+ * </ul>
+ */
+public class DatasetSearchFilter {
+
+  private static final String PREFIX = "eskg.search.";
+
+  /** property suffix and command line option mapped to the PO.DAAC parameter */
+  private static final String[][] PARAMETERS = {
+      { "bbox", "bbox", "Bounding box as west,south,east,north in decimal degrees." },
+      { "startTime", "startTime", "Start of the period datasets must overlap, as an ISO 8601 instant or date." },
+      { "endTime", "endTime", "End of the period datasets must overlap, as an ISO 8601 instant or date." },
+      { "shortName", "shortName", "Short name of the dataset." },
+      { "processingLevel", "processLevel", "Processing level of the datasets, such as 2 or 4." } };
+
+  /** Dataset Search parameters in the order they are added to the query */
+  private final Map<String, String> parameters = new LinkedHashMap<>();
+
+  private DatasetSearchFilter() {
+  }
+
+  /**
+   * Creates the filter configured by <code>eskg.search.*</code>.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   * @return the filter, which is empty when no property is set
+   * @throws IllegalArgumentException
+   *           if the bounding box or a time is malformed
+   */
+  public static DatasetSearchFilter fromProperties(Properties props) {
+    DatasetSearchFilter filter = new DatasetSearchFilter();
+    for (String[] parameter : PARAMETERS) {
+      String value = props.getProperty(PREFIX + parameter[0], "").trim();
+      if (value.isEmpty()) {
+        continue;
+      }
+      switch (parameter[0]) {
+      case "bbox":
+        value = boundingBox(value);
+        break;
+      case "startTime":
+        value = instant(value, false);
+        break;
+      case "endTime":
+        value = instant(value, true);
+        break;
+      default:
+        break;
+      }
+      filter.parameters.put(parameter[1], value);
+    }
+    return filter;
+  }
+
+  /**
+   * @return true if the filter matches every dataset
+   */
+  public boolean isEmpty() {
+    return parameters.isEmpty();
+  }
+
+  /**
+   * @return the filter as Dataset Search query parameters, each preceded by
+   *         <code>&amp;</code>, or an empty string if the filter is empty
+   */
+  public String toQueryParameters() {
+    StringBuilder query = new StringBuilder();
+    for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+      query.append('&').append(parameter.getKey()).append('=').append(encode(parameter.getValue()));
+    }
+    return query.toString();
+  }
+
+  @Override
+  public String toString() {
+    return parameters.toString();
+  }
+
+  /**
+   * Adds an option for every filter parameter, for use by command line
+   * entry points.
+   *
+   * @param opts
+   *          the options to add to
+   * @return the options
+   */
+  public static Options addOptions(Options opts) {
+    for (String[] parameter : PARAMETERS) {
+      opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName(parameter[0]).required(false)
+          .longOpt(parameter[0]).desc(parameter[2]).build());
+    }
+    return opts;
+  }
+
+  /**
+   * Copies the filter options given on a command line into the properties
+   * read by {@link #fromProperties(Properties)}.
+   *
+   * @param cmd
+   *          the parsed command line
+   * @param props
+   *          the properties to copy into
+   */
+  public static void applyOptions(CommandLine cmd, Properties props) {
+    for (String[] parameter : PARAMETERS) {
+      if (cmd.hasOption(parameter[0])) {
+        props.setProperty(PREFIX + parameter[0], cmd.getOptionValue(parameter[0]));
+      }
+    }
+  }
+
+  private static String boundingBox(String value) {
+    String[] corners = value.split(",");
+    if (corners.length != 4) {
+      throw new IllegalArgumentException("Bounding box must be west,south,east,north: " + value);
+    }
+    StringBuilder bbox = new StringBuilder();
+    for (int i = 0; i < corners.length; i++) {
+      double degrees;
+      try {
+        degrees = Double.parseDouble(corners[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bounding box must be west,south,east,north: " + value, e);
+      }
+      double limit = i % 2 == 0 ? 180 : 90;
+      if (Math.abs(degrees) > limit) {
+        throw new IllegalArgumentException("Bounding box coordinate out of range: " + corners[i].trim());
+      }
+      bbox.append(i > 0 ? "," : "").append(corners[i].trim());
+    }
+    return bbox.toString();
+  }
+
+  /**
+   * Normalizes a time to an ISO 8601 instant; a date is taken as the start of
+   * the day, or the end of the day if it ends a period.
+   */
+  private static String instant(String value, boolean endOfPeriod) {
+    try {
+      return Instant.parse(value).toString();
+    } catch (DateTimeParseException e) {
+      try {
+        LocalDate date = LocalDate.parse(value);
+        Instant instant = endOfPeriod ? date.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().minusSeconds(1)
+            : date.atStartOfDay(ZoneOffset.UTC).toInstant();
+        return instant.toString();
+      } catch (DateTimeParseException notADate) {
+        throw new IllegalArgumentException("Time must be an ISO 8601 instant or date: " + value, notADate);
+      }
+    }
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+/**
+ * A single page of results from the PO.DAAC Dataset Search WebService. The
+ * GCMD Metadata links extracted from each Atom entry are streamed to a
+ * consumer as the page is parsed and only counted here, whilst the
+ * OpenSearch <code>totalResults</code>, <code>startIndex</code> and
+ * <code>itemsPerPage</code> values reported by the service are retained such
+ * that subsequent pages can be requested without overlap.
+ */
+public class DatasetSearchPage {
+
+  private long totalResults = -1;
+
+  private long startIndex = -1;
+
+  private long itemsPerPage = -1;
+
+  private int gcmdLinkCount;
+
+  /**
+   * Default constructor
+   */
+  public DatasetSearchPage() {
+    // default constructor
+  }
+
+  /**
+   * @return the total number of results matching the search, or -1 if the
+   *         service did not report it
+   */
+  public long getTotalResults() {
+    return totalResults;
+  }
+
+  /**
+   * @param totalResults
+   *          the total number of results matching the search
+   */
+  public void setTotalResults(long totalResults) {
+    this.totalResults = totalResults;
+  }
+
+  /**
+   * @return the index of the first result on this page, or -1 if the service
+   *         did not report it
+   */
+  public long getStartIndex() {
+    return startIndex;
+  }
+
+  /**
+   * @param startIndex
+   *          the index of the first result on this page
+   */
+  public void setStartIndex(long startIndex) {
+    this.startIndex = startIndex;
+  }
+
+  /**
+   * @return the number of results the service returns per page, or -1 if the
+   *         service did not report it
+   */
+  public long getItemsPerPage() {
+    return itemsPerPage;
+  }
+
+  /**
+   * @param itemsPerPage
+   *          the number of results the service returns per page
+   */
+  public void setItemsPerPage(long itemsPerPage) {
+    this.itemsPerPage = itemsPerPage;
+  }
+
+  /**
+   * @return the number of GCMD Metadata links extracted from the entries on
+   *         this page
+   */
+  public int getGcmdLinkCount() {
+    return gcmdLinkCount;
+  }
+
+  /**
+   * @param gcmdLinkCount
+   *          the number of GCMD Metadata links extracted from the entries on
+   *          this page
+   */
+  public void setGcmdLinkCount(int gcmdLinkCount) {
+    this.gcmdLinkCount = gcmdLinkCount;
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Message digest helpers shared by the acquisition classes.
+ */
+final class Digests {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private Digests() {
+    // utility class
+  }
+
+  /**
+   * @return a new SHA-1 {@link MessageDigest}
+   */
+  static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the lower case hexadecimal SHA-1 digest of the UTF-8 bytes of a
+   *         String
+   */
+  static String sha1Hex(String value) {
+    return toHex(sha1().digest(value.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * @return the lower case hexadecimal representation of the bytes
+   */
+  static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+}
@@ -19,10 +19,18 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 import org.apache.any23.plugin.crawler.CrawlerListener;
@@ -33,6 +41,8 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.esipfed.eskg.metrics.MetricsRegistry;
+import org.esipfed.eskg.metrics.MetricsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +63,18 @@ public class ESKGCrawler {
   private static final String PAGES_OPT = "maxPages";
   private static final String DEPTH_OPT = "maxDepth";
   private static final String POLITE_OPT = "politenessDelay";
+  private static final String TIMEOUT_OPT = "timeout";
+  private static final String PAGE_LOG_OPT = "pageLog";
+  private static final String PAGE_STORE_OPT = "pageStore";
+
+  /** milliseconds between requests to a host, crawler4j's own default */
+  private static final int DEFAULT_POLITENESS_DELAY = 200;
+
+  /** seconds between progress reports */
+  private static final long PROGRESS_INTERVAL = 10;
+
+  /** seconds to wait for the crawler threads once the crawl is stopped */
+  private static final long CRAWLER_SHUTDOWN_TIMEOUT = 60;
 
   private static SiteCrawler crawler;
 
@@ -66,10 +88,22 @@ public class ESKGCrawler {
 
   private static int maxDepth = Integer.MAX_VALUE;
 
-  private static int politenessDelay = Integer.MAX_VALUE;
+  private static int politenessDelay = DEFAULT_POLITENESS_DELAY;
 
   private static URL seedUrl;
 
+  private static long crawlTimeout;
+
+  private static File pageLog = new File("crawl-pages.log");
+
+  private static File pageStoreFolder;
+
+  private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+
+  private static final LongAdder PAGES = METRICS.counter("crawler.pages");
+
+  private static final LongAdder BYTES = METRICS.counter("crawler.bytes");
+
   /**
    * Default constructor.
    */
@@ -81,35 +115,120 @@ public class ESKGCrawler {
     }
   }
 
-  private static void crawl(SiteCrawler crawler) throws InterruptedException {
-    final Set<String> distinctPages = new HashSet<>();
+  /**
+   * Crawls from the seed until the crawl ends of its own accord, because the
+   * frontier is exhausted or the page or depth limit reached, until
+   * <code>maxPages</code> distinct pages have been visited, or until the
+   * deadline passes, whichever is first. Each page is recorded once in the
+   * page log, and its content in the page store if there is one; only
+   * aggregate progress is logged whilst the crawl runs.
+   */
+  private static void crawl(SiteCrawler crawler, VisitedPageSink sink, PageStore store) throws InterruptedException {
+    // completed when the crawl should end, by whichever condition comes first
+    final CompletableFuture<String> done = new CompletableFuture<>();
     crawler.addListener(new CrawlerListener() {
       @Override
       public void visitedPage(Page page) {
-        distinctPages.add( page.getWebURL().getURL() );
-        Iterator<String> it = distinctPages.iterator();
-        while (it.hasNext()) {
-          LOG.info("Fetching page - " + it.next());
+        PAGES.increment();
+        if (page.getContentData() != null) {
+          BYTES.add(page.getContentData().length);
+        }
+        METRICS.counter("crawler.responses." + page.getStatusCode()).increment();
+        try {
+          if (!sink.visit(page)) {
+            return;
+          }
+          if (store != null && page.getContentData() != null) {
+            store.put(page.getWebURL().getURL(), page.getContentType(), page.getContentData(), Instant.now());
+          }
+          if (sink.getVisited() >= maxPages) {
+            done.complete("page limit of " + maxPages + " reached");
+          }
+        } catch (IOException e) {
+          done.completeExceptionally(e);
         }
       }
     });
-    try {
-      crawler.start(seedUrl, pageFilter, false);
-    } catch (Exception e) {
-      LOG.error("Error whilst starting crawl.", e);
-    }
-    synchronized (ESKGCrawler.class) {
+    ExecutorService runner = Executors.newSingleThreadExecutor(r -> new Thread(r, "eskg-crawl"));
+    ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "eskg-crawl-progress");
+      t.setDaemon(true);
+      return t;
+    });
+    long start = System.nanoTime();
+    // the crawler blocks until the frontier is exhausted or its limits reached
+    runner.execute(() -> {
       try {
-        ESKGCrawler.class.wait(15 * 1000);
-      } catch (InterruptedException e) {
-        LOG.error("Crawler has been interrupted:", e);
-        throw new InterruptedException();
+        crawler.start(seedUrl, pageFilter, true);
+        done.complete("frontier exhausted");
+      } catch (Exception e) {
+        done.completeExceptionally(e);
       }
-    }
-    crawler.stop();
+    });
+    progress.scheduleAtFixedRate(new Runnable() {
+      private long previous;
+      private long previousNanos = start;
 
-    LOG.info("Distinct pages: " + distinctPages.size());
+      @Override
+      public void run() {
+        long pages = sink.getVisited();
+        long now = System.nanoTime();
+        try {
+          sink.flush();
+          if (store != null) {
+            store.flush();
+          }
+        } catch (IOException e) {
+          LOG.warn("Error whilst writing page log {}.", sink.getFile(), e);
+        }
+        LOG.info("Crawled {} pages, {} pages/s", pages,
+            String.format(Locale.ROOT, "%.1f", (pages - previous) * 1e9 / Math.max(1, now - previousNanos)));
+        previous = pages;
+        previousNanos = now;
+      }
+    }, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.SECONDS);
+    try {
+      String reason = crawlTimeout > 0 ? done.get(crawlTimeout, TimeUnit.SECONDS) : done.get();
+      LOG.info("Crawl ended, {}.", reason);
+    } catch (TimeoutException e) {
+      LOG.info("Crawl deadline of {} seconds reached.", crawlTimeout);
+    } catch (ExecutionException e) {
+      LOG.error("Error whilst crawling.", e.getCause());
+    } catch (InterruptedException e) {
+      LOG.error("Crawler has been interrupted:", e);
+      throw e;
+    } finally {
+      progress.shutdownNow();
+      crawler.stop();
+      awaitCrawlerThreads(runner);
+    }
+    double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    if (store != null) {
+      LOG.info("Stored {} distinct page contents for {} URLs in {}.", store.getPageCount(), store.getUrlCount(), pageStoreFolder);
+    }
+    LOG.info("Distinct pages: {}, revisits: {}, crawled in {} s at {} pages/s, logged to {}", sink.getVisited(), sink.getRevisits(),
+        String.format(Locale.ROOT, "%.1f", seconds), String.format(Locale.ROOT, "%.1f", sink.getVisited() / seconds), sink.getFile());
+  }
 
+  /**
+   * Waits for the crawl started on the runner to return, which it does once
+   * every crawler thread has finished, such that no page is still being
+   * recorded when the sink and store are closed. Crawler threads which
+   * outlive the wait may still visit pages, which the closed sink and store
+   * then ignore.
+   */
+  private static void awaitCrawlerThreads(ExecutorService runner) {
+    runner.shutdown();
+    try {
+      if (!runner.awaitTermination(CRAWLER_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+        LOG.warn("Crawler threads still running {} seconds after the crawl was stopped, later pages will not be recorded.",
+            CRAWLER_SHUTDOWN_TIMEOUT);
+        runner.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      runner.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
@@ -120,8 +239,21 @@ public class ESKGCrawler {
    * <li><b>nCrawler</b>; Sets the number of crawlers.</li>
    * <li><b>mPages</b>; Max number of pages before interrupting crawl.</li>
    * <li><b>mDepth</b>; Max allowed crawler depth.</li>
-   * <li><b>pDelay</b>; Politeness delay in milliseconds.</li>
+   * <li><b>pDelay</b>; Politeness delay in milliseconds, 200 by default.</li>
+   * <li><b>timeout</b>; Deadline in seconds after which the crawl is stopped,
+   * unlimited by default.</li>
+   * <li><b>pageLog</b>; File each visited page is appended to, as a line of
+   * fetch time, status, length, depth and URL; crawl-pages.log by default.</li>
+   * <li><b>pageStore</b>; Folder of a {@link PageStore} the content of each
+   * visited page is stored in, once per distinct content, for later
+   * extraction; not stored by default. The storage folder is still required,
+   * it holds the crawler's frontier.</li>
    * </ul>
+   * The crawl ends as soon as the frontier is exhausted or a limit or the
+   * deadline is reached.
+   * 
+   * Crawl metrics are reported as configured by <code>eskg.metrics.*</code>
+   * in <code>eskg.properties</code>.
    * 
    * @param args
    *          includes options as per description
@@ -154,11 +286,23 @@ public class ESKGCrawler {
 
     Option pdOpt = Option.builder().hasArg(true).numberOfArgs(1)
         .argName("pDelay").required(false).longOpt(POLITE_OPT)
-        .desc("Politeness delay in milliseconds.").build();
+        .desc("Politeness delay in milliseconds, " + DEFAULT_POLITENESS_DELAY + " by default.").build();
+
+    Option toOpt = Option.builder().hasArg(true).numberOfArgs(1)
+        .argName("timeout").required(false).longOpt(TIMEOUT_OPT)
+        .desc("Deadline in seconds after which the crawl is stopped, unlimited by default.").build();
+
+    Option plOpt = Option.builder().hasArg(true).numberOfArgs(1)
+        .argName("pageLog").required(false).longOpt(PAGE_LOG_OPT)
+        .desc("File each visited page is appended to, crawl-pages.log by default.").build();
+
+    Option psOpt = Option.builder().hasArg(true).numberOfArgs(1)
+        .argName("pageStore").required(false).longOpt(PAGE_STORE_OPT)
+        .desc("Folder the content of visited pages is stored in, once per distinct content.").build();
 
     Options opts = new Options();
     opts.addOption(sOpt).addOption(pfOpt).addOption(sfOpt).addOption(ncOpt).addOption(mpOpt)
-    .addOption(mdOpt).addOption(pdOpt);
+    .addOption(mdOpt).addOption(pdOpt).addOption(toOpt).addOption(plOpt).addOption(psOpt);
 
     DefaultParser parser = new DefaultParser();
     CommandLine cmd = null;
@@ -202,6 +346,15 @@ public class ESKGCrawler {
     if (cmd.hasOption(POLITE_OPT)) {
       politenessDelay = Integer.parseInt(cmd.getOptionValue(POLITE_OPT));
     }
+    if (cmd.hasOption(TIMEOUT_OPT)) {
+      crawlTimeout = Long.parseLong(cmd.getOptionValue(TIMEOUT_OPT));
+    }
+    if (cmd.hasOption(PAGE_LOG_OPT)) {
+      pageLog = new File(cmd.getOptionValue(PAGE_LOG_OPT));
+    }
+    if (cmd.hasOption(PAGE_STORE_OPT)) {
+      pageStoreFolder = new File(cmd.getOptionValue(PAGE_STORE_OPT));
+    }
 
     crawler.setMaxDepth(maxDepth);
     LOG.info("Setting max depth to: {}", maxDepth);
@@ -213,10 +366,21 @@ public class ESKGCrawler {
     LOG.info("Setting crawler politeness to: {}", politenessDelay);
     crawler.setWebCrawler(SiteCrawler.DEFAULT_WEB_CRAWLER);
 
-    try {
-      crawl(crawler);
+    Properties props = PODAACWebServiceClient.loadProperties();
+    props.putAll(PODAACWebServiceClient.systemOverrides());
+    MetricsReporter reporter = null;
+    try (VisitedPageSink sink = new VisitedPageSink(pageLog);
+        PageStore store = pageStoreFolder != null ? new PageStore(pageStoreFolder) : null) {
+      reporter = MetricsReporter.fromProperties(props);
+      crawl(crawler, sink, store);
     } catch (InterruptedException e) {
       LOG.error("Error executing crawl." , e);
+    } catch (IOException e) {
+      LOG.error("Error whilst starting metrics reporter or writing page log or store.", e);
+    } finally {
+      if (reporter != null) {
+        reporter.close();
+      }
     }
   }
 }
@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compressed archive of the responses received during a harvest, allowing a
+ * harvest to be repeated offline and deterministically. In record mode the
+ * body of every successful response is written to a ZIP file under an entry
+ * named by the SHA-1 of its URL, along with an <code>index.properties</code>
+ * entry mapping each URL to its entry. In replay mode responses are served
+ * from the archive instead of the network, and a request for a URL which was
+ * not recorded fails. The archive is configured with
+ * <ul>
+ * <li><b>eskg.archive.mode</b>; <code>record</code>, <code>replay</code> or
+ * <code>off</code>.</li>
+ * <li><b>eskg.archive.file</b>; the ZIP file recorded to or replayed
+ * from.</li>
+ * </ul>
+ */
+public class HarvestArchive implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HarvestArchive.class);
+
+  private static final String INDEX_ENTRY = "index.properties";
+
+  private final File file;
+
+  private final boolean replaying;
+
+  private ZipOutputStream zipOut;
+
+  private ZipFile zipIn;
+
+  /** URL to entry name of every recorded response, sorted for stable output */
+  private final TreeMap<String, String> recorded = new TreeMap<>();
+
+  private HarvestArchive(File file, boolean replaying) throws IOException {
+    this.file = file;
+    this.replaying = replaying;
+    if (replaying) {
+      if (!file.exists()) {
+        throw new FileNotFoundException("Harvest archive " + file + " does not exist, it must be recorded first.");
+      }
+      zipIn = new ZipFile(file);
+      LOG.info("Replaying harvest from {} with {} recorded responses.", file, zipIn.size() - 1);
+    } else {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+        throw new IOException("Unable to create archive directory " + parent);
+      }
+      zipOut = new ZipOutputStream(new FileOutputStream(file));
+      LOG.info("Recording harvest to {}", file);
+    }
+  }
+
+  /**
+   * Opens the archive configured by <code>eskg.archive.mode</code>.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   * @return the archive, or null if archiving is off
+   * @throws IOException
+   *           if the archive cannot be opened
+   */
+  public static HarvestArchive fromProperties(Properties props) throws IOException {
+    String mode = props.getProperty("eskg.archive.mode", "off").trim();
+    File file = new File(props.getProperty("eskg.archive.file", "target/harvest-archive.zip").trim());
+    switch (mode) {
+      case "record":
+      return new HarvestArchive(file, false);
+      case "replay":
+      return new HarvestArchive(file, true);
+      case "off":
+      case "":
+      return null;
+      default:
+      throw new IllegalArgumentException("Unknown eskg.archive.mode: " + mode);
+    }
+  }
+
+  /**
+   * @return true if responses are served from the archive
+   */
+  public boolean isReplaying() {
+    return replaying;
+  }
+
+  /**
+   * Opens the recorded response body for a URL.
+   *
+   * @param url
+   *          the requested URL
+   * @return the response body
+   * @throws FileNotFoundException
+   *           if no response was recorded for the URL
+   */
+  public InputStream open(String url) throws IOException {
+    ZipEntry entry = zipIn.getEntry(entryName(url));
+    if (entry == null) {
+      throw new FileNotFoundException("No response recorded in " + file + " for " + url);
+    }
+    return zipIn.getInputStream(entry);
+  }
+
+  /**
+   * Records a response body. The body is read in full and written to the
+   * archive before being returned for parsing, a URL already recorded is not
+   * written again.
+   *
+   * @param url
+   *          the requested URL
+   * @param body
+   *          the response body
+   * @return a stream over the same body
+   * @throws IOException
+   *           if the body cannot be read or recorded
+   */
+  public InputStream record(String url, InputStream body) throws IOException {
+    byte[] bytes = IOUtils.toByteArray(body);
+    String name = entryName(url);
+    synchronized (this) {
+      if (!recorded.containsKey(url)) {
+        zipOut.putNextEntry(new ZipEntry(name));
+        zipOut.write(bytes);
+        zipOut.closeEntry();
+        recorded.put(url, name);
+      }
+    }
+    return new ByteArrayInputStream(bytes);
+  }
+
+  /**
+   * Writes the index and completes the archive when recording, or releases the
+   * archive when replaying.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (replaying) {
+      zipIn.close();
+      return;
+    }
+    zipOut.putNextEntry(new ZipEntry(INDEX_ENTRY));
+    Writer writer = new OutputStreamWriter(zipOut, StandardCharsets.UTF_8);
+    for (Map.Entry<String, String> entry : recorded.entrySet()) {
+      writer.write(entry.getValue() + "=" + entry.getKey() + "\n");
+    }
+    writer.flush();
+    zipOut.closeEntry();
+    zipOut.close();
+    LOG.info("Recorded {} responses to {}", recorded.size(), file);
+  }
+
+  private static String entryName(String url) {
+    return Digests.sha1Hex(url);
+  }
+
+}
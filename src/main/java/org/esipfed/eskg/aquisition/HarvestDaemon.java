@@ -0,0 +1,290 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.esipfed.eskg.metrics.MetricsRegistry;
+import org.esipfed.eskg.metrics.MetricsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps a {@link HarvestScheduler} resident and refreshes the knowledge graph
+ * on a fixed schedule. The pooled HTTP clients, caches and, in incremental
+ * mode, the mapped model are retained between refreshes, such that each
+ * refresh pays only for the records which changed rather than for JVM
+ * startup, Jena initialization and a full rebuild. A refresh begins a fixed
+ * interval after the previous one finished, refreshes never overlap, and a
+ * failed refresh is retried at the next interval. The status of the last
+ * refresh is served as JSON from <code>/status</code>, and the harvest metrics
+ * are served alongside from <code>/metrics</code>. The daemon is configured
+ * with
+ * <ul>
+ * <li><b>eskg.daemon.interval</b>; seconds between the end of one refresh and
+ * the start of the next.</li>
+ * <li><b>eskg.daemon.initialDelay</b>; seconds before the first refresh.</li>
+ * <li><b>eskg.daemon.statusHost</b> and <b>eskg.daemon.statusPort</b>; the
+ * address status is served from, status is not served when the port is
+ * unset.</li>
+ * <li><b>eskg.metrics.*</b>; see {@link MetricsReporter}.</li>
+ * </ul>
+ */
+public class HarvestDaemon {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HarvestDaemon.class);
+
+  private static final String STATUS_PATH = "/status";
+
+  private static final String METRICS_PATH = "/metrics";
+
+  private final Properties props;
+
+  private final HarvestScheduler scheduler;
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "eskg-harvest-daemon");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicBoolean stopping = new AtomicBoolean();
+
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  private HttpServer statusServer;
+
+  private MetricsReporter metricsReporter;
+
+  private final long startedAt = System.currentTimeMillis();
+
+  // status of the refreshes, guarded by this
+  private boolean running;
+  private long runningSince;
+  private int runs;
+  private int failures;
+  private long lastStart;
+  private long lastEnd;
+  private long lastRecords;
+  private String lastError;
+  private long nextRun;
+
+  /**
+   * Creates a daemon harvesting the sources selected by
+   * <code>eskg.harvest.sources</code>.
+   *
+   * @param props
+   *          runtime properties
+   * @throws IOException
+   *           if a source cannot be opened
+   */
+  public HarvestDaemon(Properties props) throws IOException {
+    this.props = props;
+    this.scheduler = new HarvestScheduler(props);
+  }
+
+  /**
+   * Schedules refreshes and starts serving status.
+   *
+   * @throws IOException
+   *           if the status port cannot be bound
+   */
+  public void start() throws IOException {
+    long interval = getLong("eskg.daemon.interval", 3600);
+    long initialDelay = getLong("eskg.daemon.initialDelay", 0);
+    if (!Boolean.parseBoolean(props.getProperty("eskg.incremental", "false").trim())) {
+      LOG.warn("eskg.incremental is disabled, every refresh will rebuild the model from scratch.");
+    }
+    metricsReporter = MetricsReporter.fromProperties(props);
+    String port = props.getProperty("eskg.daemon.statusPort", "").trim();
+    if (!port.isEmpty()) {
+      String host = props.getProperty("eskg.daemon.statusHost", "localhost").trim();
+      statusServer = HttpServer.create(new InetSocketAddress(host, Integer.parseInt(port)), 0);
+      statusServer.createContext(STATUS_PATH, this::handleStatus);
+      statusServer.createContext(METRICS_PATH, MetricsReporter.handler(MetricsRegistry.getDefault()));
+      statusServer.start();
+      LOG.info("Serving harvest status at http://{}:{}{}", host, statusServer.getAddress().getPort(), STATUS_PATH);
+    }
+    synchronized (this) {
+      nextRun = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(initialDelay);
+    }
+    executor.scheduleWithFixedDelay(() -> refresh(interval), initialDelay, interval, TimeUnit.SECONDS);
+    LOG.info("Harvest daemon started, refreshing every {} seconds", interval);
+  }
+
+  /**
+   * Runs a single refresh. Exceptions and errors are recorded rather than
+   * thrown, as anything escaping a scheduled task silently cancels every
+   * later run while the status continues to be served.
+   */
+  private void refresh(long interval) {
+    long start = System.currentTimeMillis();
+    synchronized (this) {
+      running = true;
+      runningSince = start;
+    }
+    long records = 0;
+    String error = null;
+    try {
+      records = scheduler.harvest();
+    } catch (Throwable e) {
+      LOG.error("Harvest refresh failed, retrying in {} seconds.", interval, e);
+      error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+    }
+    synchronized (this) {
+      running = false;
+      runs++;
+      lastStart = start;
+      lastEnd = System.currentTimeMillis();
+      lastRecords = records;
+      lastError = error;
+      if (error != null) {
+        failures++;
+      }
+      nextRun = lastEnd + TimeUnit.SECONDS.toMillis(interval);
+    }
+  }
+
+  /**
+   * @return the status of the daemon and its last refresh as a JSON object
+   */
+  public synchronized String getStatus() {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"state\":\"").append(running ? "running" : "idle").append('"');
+    json.append(",\"startedAt\":\"").append(Instant.ofEpochMilli(startedAt)).append('"');
+    if (running) {
+      json.append(",\"runningSince\":\"").append(Instant.ofEpochMilli(runningSince)).append('"');
+    }
+    json.append(",\"runs\":").append(runs);
+    json.append(",\"failures\":").append(failures);
+    if (runs > 0) {
+      json.append(",\"lastRun\":{");
+      json.append("\"start\":\"").append(Instant.ofEpochMilli(lastStart)).append('"');
+      json.append(",\"end\":\"").append(Instant.ofEpochMilli(lastEnd)).append('"');
+      json.append(",\"durationMs\":").append(lastEnd - lastStart);
+      json.append(",\"outcome\":\"").append(lastError == null ? "success" : "failure").append('"');
+      json.append(",\"records\":").append(lastRecords);
+      if (lastError != null) {
+        json.append(",\"error\":\"").append(escape(lastError)).append('"');
+      }
+      json.append('}');
+    }
+    if (!running) {
+      json.append(",\"nextRun\":\"").append(Instant.ofEpochMilli(nextRun)).append('"');
+    }
+    return json.append('}').toString();
+  }
+
+  private void handleStatus(HttpExchange exchange) throws IOException {
+    byte[] body = getStatus().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static String escape(String value) {
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        escaped.append('\\').append(c);
+      } else if (c < 0x20) {
+        escaped.append(' ');
+      } else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * Stops scheduling refreshes, waiting for any refresh in progress to
+   * complete, and releases the sources.
+   */
+  public void stop() {
+    if (!stopping.compareAndSet(false, true)) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (statusServer != null) {
+      statusServer.stop(0);
+    }
+    if (metricsReporter != null) {
+      metricsReporter.close();
+    }
+    try {
+      scheduler.close();
+    } catch (IOException e) {
+      LOG.error("Error closing harvest sources.", e);
+    }
+    synchronized (this) {
+      LOG.info("Harvest daemon stopped after {} refreshes.", runs);
+    }
+    stopped.countDown();
+  }
+
+  /**
+   * Waits until the daemon has been stopped.
+   *
+   * @throws InterruptedException
+   *           if interrupted whilst waiting
+   */
+  public void awaitStop() throws InterruptedException {
+    stopped.await();
+  }
+
+  private long getLong(String key, long defaultValue) {
+    return Long.parseLong(props.getProperty(key, Long.toString(defaultValue)).trim());
+  }
+
+  /**
+   * Runs the daemon until the process is terminated. Any <code>eskg.*</code>
+   * system property overrides the corresponding property in
+   * <code>eskg.properties</code>, for example
+   * <code>-Deskg.daemon.interval=900</code>.
+   *
+   * @param args
+   *          no args required
+   * @throws Exception
+   *           if the daemon cannot be started
+   */
+  public static void main(String[] args) throws Exception {
+    Properties props = PODAACWebServiceClient.loadProperties();
+    props.putAll(PODAACWebServiceClient.systemOverrides());
+    HarvestDaemon daemon = new HarvestDaemon(props);
+    Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "eskg-harvest-daemon-shutdown"));
+    daemon.start();
+    daemon.awaitStop();
+  }
+
+}
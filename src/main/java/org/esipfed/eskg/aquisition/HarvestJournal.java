@@ -0,0 +1,363 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A durable, append-only journal of the progress of a harvest, allowing a
+ * harvest interrupted part way through to resume rather than start again.
+ * The raw body of every GCMD record fetched is spooled to disk and a
+ * <code>FETCHED</code> line appended to the journal once the body has been
+ * parsed successfully, followed by a <code>PARSED</code> line carrying the
+ * record's Entry_ID. A restarted harvest parses spooled records from disk
+ * instead of fetching them again. Once the harvest has been mapped and
+ * written the journal and spool are deleted. The journal is configured with
+ * <ul>
+ * <li><b>eskg.journal.dir</b>; the directory holding the journal and spooled
+ * records, journaling is disabled when unset.</li>
+ * <li><b>eskg.journal.sync</b>; whether every journal entry, and the spooled
+ * body and directory entry of every record it refers to, is forced to the
+ * storage device, rather than only to the operating system, before the harvest
+ * continues.</li>
+ * </ul>
+ */
+public class HarvestJournal implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HarvestJournal.class);
+
+  private static final String JOURNAL_FILE = "journal.log";
+  private static final String SPOOL_DIR = "spool";
+  private static final String FETCHED = "FETCHED";
+  private static final String PARSED = "PARSED";
+
+  private final Path journalFile;
+
+  private final Path spoolDir;
+
+  private final boolean sync;
+
+  /** URL to Entry_ID, or the empty string until parsed, of every spooled record */
+  private final Map<String, String> records = new ConcurrentHashMap<>();
+
+  private FileOutputStream journalOut;
+
+  private Writer journalWriter;
+
+  private HarvestJournal(Path dir, boolean sync) throws IOException {
+    this.journalFile = dir.resolve(JOURNAL_FILE);
+    this.spoolDir = dir.resolve(SPOOL_DIR);
+    this.sync = sync;
+    Files.createDirectories(spoolDir);
+    replay();
+    open();
+  }
+
+  /**
+   * Opens the journal configured by <code>eskg.journal.dir</code>, resuming
+   * any harvest it records.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   * @return the journal, or null if journaling is disabled
+   * @throws IOException
+   *           if the journal cannot be opened
+   */
+  public static HarvestJournal fromProperties(Properties props) throws IOException {
+    String dir = props.getProperty("eskg.journal.dir");
+    if (dir == null || dir.trim().isEmpty()) {
+      return null;
+    }
+    return new HarvestJournal(Paths.get(dir.trim()), Boolean.parseBoolean(props.getProperty("eskg.journal.sync", "false").trim()));
+  }
+
+  /**
+   * @return true if the record has been fetched and spooled by this or an
+   *         interrupted harvest
+   */
+  public boolean isFetched(String url) {
+    return records.containsKey(url);
+  }
+
+  /**
+   * Opens the spooled body of a record which has been fetched.
+   *
+   * @param url
+   *          the URL the record was fetched from
+   * @return the spooled body
+   * @throws IOException
+   *           if the spooled body cannot be read
+   */
+  public InputStream open(String url) throws IOException {
+    return Files.newInputStream(spoolFile(url));
+  }
+
+  /**
+   * Forgets a record whose spooled body could not be used, such that it is
+   * fetched again.
+   */
+  public void discard(String url) {
+    records.remove(url);
+    try {
+      Files.deleteIfExists(spoolFile(url));
+    } catch (IOException e) {
+      LOG.debug("Unable to delete spooled record for {}", url, e);
+    }
+  }
+
+  /**
+   * Spools a body as it is read. The record is only journaled as fetched once
+   * {@link Spool#commit()} is called after the body has been read in full,
+   * closing an uncommitted spool discards it.
+   *
+   * @param url
+   *          the URL the record was fetched from
+   * @param body
+   *          the response body
+   * @return a stream over the same body
+   * @throws IOException
+   *           if the spool cannot be created
+   */
+  public Spool spool(String url, InputStream body) throws IOException {
+    return new Spool(url, body);
+  }
+
+  /**
+   * Journals a record as parsed.
+   *
+   * @param url
+   *          the URL the record was fetched from
+   * @param entryId
+   *          the Entry_ID of the parsed record
+   * @throws IOException
+   *           if the journal cannot be written
+   */
+  public void parsed(String url, String entryId) throws IOException {
+    String id = entryId != null ? entryId : "";
+    records.put(url, id);
+    append(PARSED + '\t' + url + '\t' + id);
+  }
+
+  /**
+   * @return the number of records fetched and spooled
+   */
+  public int size() {
+    return records.size();
+  }
+
+  /**
+   * Marks the harvest as complete, deleting the journal and every spooled
+   * record such that the next harvest starts afresh.
+   *
+   * @throws IOException
+   *           if the journal cannot be reset
+   */
+  public synchronized void complete() throws IOException {
+    journalWriter.close();
+    try (DirectoryStream<Path> spooled = Files.newDirectoryStream(spoolDir)) {
+      for (Path path : spooled) {
+        Files.deleteIfExists(path);
+      }
+    }
+    Files.deleteIfExists(journalFile);
+    LOG.info("Harvest complete, cleared journal of {} records.", records.size());
+    records.clear();
+    open();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    journalWriter.close();
+  }
+
+  /**
+   * Rebuilds the state of an interrupted harvest from the journal. A partially
+   * written final line, left by a process which died whilst appending, is
+   * ignored, as is any record whose spooled body is missing.
+   */
+  private void replay() throws IOException {
+    if (!Files.exists(journalFile)) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (FETCHED.equals(fields[0]) && fields.length == 2) {
+          records.putIfAbsent(fields[1], "");
+        } else if (PARSED.equals(fields[0]) && fields.length == 3) {
+          records.put(fields[1], fields[2]);
+        }
+      }
+    }
+    records.keySet().removeIf(url -> !Files.exists(spoolFile(url)));
+    // remove spool files which were never committed
+    try (DirectoryStream<Path> spooled = Files.newDirectoryStream(spoolDir, "*.tmp")) {
+      for (Path path : spooled) {
+        Files.deleteIfExists(path);
+      }
+    }
+    LOG.info("Resuming harvest from journal with {} records already fetched.", records.size());
+  }
+
+  private void open() throws IOException {
+    journalOut = new FileOutputStream(journalFile.toFile(), true);
+    journalWriter = new OutputStreamWriter(journalOut, StandardCharsets.UTF_8);
+    if (sync) {
+      syncDirectory(journalFile.getParent());
+    }
+  }
+
+  /**
+   * Forces a directory's entries, such as a file just created or renamed
+   * within it, to the storage device. Not every platform allows a directory to
+   * be opened, there the rename is left to the operating system.
+   */
+  private static void syncDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      LOG.debug("Unable to sync directory {}", dir, e);
+    }
+  }
+
+  private synchronized void append(String line) throws IOException {
+    journalWriter.write(line);
+    journalWriter.write('\n');
+    journalWriter.flush();
+    if (sync) {
+      journalOut.getFD().sync();
+    }
+  }
+
+  private Path spoolFile(String url) {
+    return spoolDir.resolve(Digests.sha1Hex(url) + ".xml");
+  }
+
+  /**
+   * A response body which is copied to the spool as it is read.
+   */
+  public class Spool extends FilterInputStream {
+
+    private final String url;
+    private final Path temp;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private boolean committed;
+
+    Spool(String url, InputStream in) throws IOException {
+      super(in);
+      this.url = url;
+      this.temp = Files.createTempFile(spoolDir, Digests.sha1Hex(url), ".tmp");
+      this.channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+      this.out = Channels.newOutputStream(channel);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        out.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        out.write(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipped content must still reach the spool
+      byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+      long skipped = 0;
+      while (skipped < n) {
+        int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+        if (read == -1) {
+          break;
+        }
+        skipped += read;
+      }
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /**
+     * Moves the spooled body into place and journals the record as fetched.
+     * Must only be called once the body has been read in full.
+     *
+     * @throws IOException
+     *           if the body cannot be spooled
+     */
+    public void commit() throws IOException {
+      if (sync) {
+        // the body must be durable before the journal refers to it
+        channel.force(true);
+      }
+      out.close();
+      Files.move(temp, spoolFile(url), StandardCopyOption.REPLACE_EXISTING);
+      if (sync) {
+        syncDirectory(spoolDir);
+      }
+      committed = true;
+      records.putIfAbsent(url, "");
+      append(FETCHED + '\t' + url);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!committed) {
+          out.close();
+          Files.deleteIfExists(temp);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Selects the share of the catalog harvested by one of several worker
+ * processes, such that a harvest can be split across machines and each
+ * worker's partial graph combined afterwards with
+ * {@link org.esipfed.eskg.storage.NTriplesMerger}. Every worker runs with the
+ * same partition count and strategy and its own index, and should write to its
+ * own <code>eskg.file.name</code>. The partition is configured with
+ * <ul>
+ * <li><b>eskg.partition.count</b>; the number of partitions, the catalog is
+ * not partitioned when 1.</li>
+ * <li><b>eskg.partition.index</b>; the partition harvested by this worker,
+ * from 0.</li>
+ * <li><b>eskg.partition.strategy</b>; <code>hash</code> assigns each dataset
+ * by a hash of its datasetId, such that partitions are balanced and stable as
+ * the catalog changes, though every worker reads every Dataset Search page.
+ * <code>range</code> assigns each worker a contiguous range of Dataset Search
+ * pages, such that workers read only their own pages, though a dataset may
+ * move between partitions as the catalog changes.</li>
+ * </ul>
+ */
+public class HarvestPartition {
+
+  /** how datasets are assigned to partitions */
+  public enum Strategy {
+    HASH, RANGE
+  }
+
+  private final int count;
+
+  private final int index;
+
+  private final Strategy strategy;
+
+  HarvestPartition(int count, int index, Strategy strategy) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException("Partition index " + index + " is not between 0 and " + (count - 1));
+    }
+    this.count = count;
+    this.index = index;
+    this.strategy = strategy;
+  }
+
+  /**
+   * Creates the partition configured by <code>eskg.partition.*</code>.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   * @return the partition
+   * @throws IllegalArgumentException
+   *           if the index is out of range or the strategy unknown
+   */
+  public static HarvestPartition fromProperties(Properties props) {
+    int count = Integer.parseInt(props.getProperty("eskg.partition.count", "1").trim());
+    int index = Integer.parseInt(props.getProperty("eskg.partition.index", "0").trim());
+    Strategy strategy = Strategy.valueOf(props.getProperty("eskg.partition.strategy", "hash").trim().toUpperCase(Locale.ROOT));
+    return new HarvestPartition(count, index, strategy);
+  }
+
+  /**
+   * @return true if the catalog is split across more than one partition
+   */
+  public boolean isPartitioned() {
+    return count > 1;
+  }
+
+  /**
+   * @return the strategy assigning datasets to partitions
+   */
+  public Strategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * @param datasetKey
+   *          the canonical datasetId of a dataset
+   * @return true if the dataset belongs to this partition under the
+   *         <code>hash</code> strategy, always true under <code>range</code>
+   */
+  public boolean contains(String datasetKey) {
+    if (!isPartitioned() || strategy != Strategy.HASH) {
+      return true;
+    }
+    byte[] digest = Digests.sha1().digest(datasetKey.getBytes(StandardCharsets.UTF_8));
+    long hash = ((digest[0] & 0xffL) << 24) | ((digest[1] & 0xffL) << 16) | ((digest[2] & 0xffL) << 8) | (digest[3] & 0xffL);
+    return hash % count == index;
+  }
+
+  /**
+   * Selects the Dataset Search pages read by this partition under the
+   * <code>range</code> strategy; the pages are split into contiguous ranges
+   * differing in size by at most one page.
+   *
+   * @param pageStartIndexes
+   *          the <code>startIndex</code> of every page, in order
+   * @return the pages of this partition, or every page under
+   *         <code>hash</code>
+   */
+  public List<Long> pages(List<Long> pageStartIndexes) {
+    if (!isPartitioned() || strategy != Strategy.RANGE) {
+      return pageStartIndexes;
+    }
+    int pages = pageStartIndexes.size();
+    return pageStartIndexes.subList((int) ((long) pages * index / count), (int) ((long) pages * (index + 1) / count));
+  }
+
+  @Override
+  public String toString() {
+    return (index + 1) + " of " + count + " by " + strategy.name().toLowerCase(Locale.ROOT);
+  }
+
+}
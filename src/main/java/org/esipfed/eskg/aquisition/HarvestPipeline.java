@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A staged pipeline in which each stage runs on its own pool of worker
+ * threads and hands its output to the next stage through a bounded queue.
+ * When a downstream stage falls behind, its input queue fills and upstream
+ * workers block, such that the number of records held in memory is bounded by
+ * the queue capacities regardless of how many records pass through. A record
+ * which fails in a stage is logged and dropped without affecting the others.
+ * A typical harvest pipeline is
+ *
+ * <pre>
+ * HarvestPipeline&lt;String, DIF&gt; pipeline = HarvestPipeline.&lt;String&gt; source(64)
+ *     .stage("fetch", 8, 64, url -&gt; fetch(url))
+ *     .stage("parse", 2, 64, body -&gt; parse(body));
+ * pipeline.start("map", dif -&gt; map(dif));
+ * for (String url : urls) {
+ *   pipeline.submit(url);
+ * }
+ * pipeline.complete();
+ * pipeline.await();
+ * </pre>
+ *
+ * @param <I>
+ *          the type of record submitted to the pipeline
+ * @param <T>
+ *          the type of record produced by the last stage
+ */
+public class HarvestPipeline<I, T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HarvestPipeline.class);
+
+  /** marks the end of the records flowing through a queue */
+  private static final Object END = new Object();
+
+  /**
+   * Transforms a record in one stage of the pipeline.
+   */
+  @FunctionalInterface
+  public interface Stage<A, B> {
+    /**
+     * @return the transformed record, or null to drop it
+     */
+    B apply(A record) throws Exception;
+  }
+
+  /**
+   * Consumes the records produced by the last stage of the pipeline.
+   */
+  @FunctionalInterface
+  public interface Sink<A> {
+    void accept(A record) throws Exception;
+  }
+
+  private final BlockingQueue<Object> input;
+
+  private final List<StageWorkers> stages;
+
+  private BlockingQueue<Object> tail;
+
+  private StageWorkers sink;
+
+  private HarvestPipeline(BlockingQueue<Object> input, List<StageWorkers> stages, BlockingQueue<Object> tail) {
+    this.input = input;
+    this.stages = stages;
+    this.tail = tail;
+  }
+
+  /**
+   * Creates a pipeline with no stages.
+   *
+   * @param capacity
+   *          the capacity of the queue records are submitted to
+   * @return the pipeline
+   */
+  public static <I> HarvestPipeline<I, I> source(int capacity) {
+    BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+    return new HarvestPipeline<>(queue, new ArrayList<>(), queue);
+  }
+
+  /**
+   * Appends a stage to the pipeline.
+   *
+   * @param name
+   *          name of the stage, used for thread names and logging
+   * @param workers
+   *          number of threads running the stage
+   * @param capacity
+   *          capacity of the queue the stage writes to
+   * @param stage
+   *          the transformation applied by the stage
+   * @return the extended pipeline
+   */
+  @SuppressWarnings("unchecked")
+  public <R> HarvestPipeline<I, R> stage(String name, int workers, int capacity, Stage<? super T, ? extends R> stage) {
+    if (sink != null) {
+      throw new IllegalStateException("Pipeline has already been started.");
+    }
+    BlockingQueue<Object> output = new ArrayBlockingQueue<>(capacity);
+    stages.add(new StageWorkers(name, workers, tail, output, record -> ((Stage<Object, Object>) stage).apply(record)));
+    tail = output;
+    return (HarvestPipeline<I, R>) this;
+  }
+
+  /**
+   * Starts every stage along with a single threaded sink consuming the output
+   * of the last stage.
+   *
+   * @param name
+   *          name of the sink, used for thread names and logging
+   * @param consumer
+   *          consumes the output of the last stage
+   */
+  @SuppressWarnings("unchecked")
+  public void start(String name, Sink<? super T> consumer) {
+    sink = new StageWorkers(name, 1, tail, null, record -> {
+      ((Sink<Object>) consumer).accept(record);
+      return null;
+    });
+    for (StageWorkers stage : stages) {
+      stage.start();
+    }
+    sink.start();
+  }
+
+  /**
+   * Submits a record to the first stage, blocking whilst its queue is full.
+   *
+   * @param record
+   *          the record
+   * @return false if interrupted whilst waiting, in which case the record has
+   *         not been submitted and the interrupt status is restored
+   */
+  public boolean submit(I record) {
+    try {
+      input.put(record);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Signals that no further records will be submitted. Every stage finishes
+   * the records already queued before stopping.
+   */
+  public void complete() {
+    try {
+      input.put(END);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for every record submitted before {@link #complete()} to pass
+   * through the pipeline.
+   *
+   * @throws InterruptedException
+   *           if interrupted whilst waiting
+   */
+  public void await() throws InterruptedException {
+    for (StageWorkers stage : stages) {
+      stage.join();
+    }
+    sink.join();
+    StringBuilder summary = new StringBuilder();
+    for (StageWorkers stage : stages) {
+      summary.append(stage).append(' ');
+    }
+    LOG.info("Pipeline complete: {}{}", summary, sink);
+  }
+
+  /**
+   * The threads running one stage of the pipeline.
+   */
+  private static class StageWorkers {
+
+    private final String name;
+    private final BlockingQueue<Object> in;
+    private final BlockingQueue<Object> out;
+    private final Stage<Object, Object> stage;
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger running;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    StageWorkers(String name, int workers, BlockingQueue<Object> in, BlockingQueue<Object> out, Stage<Object, Object> stage) {
+      this.name = name;
+      this.in = in;
+      this.out = out;
+      this.stage = stage;
+      int count = Math.max(1, workers);
+      this.running = new AtomicInteger(count);
+      for (int i = 0; i < count; i++) {
+        Thread thread = new Thread(this::run, "eskg-" + name + "-" + i);
+        thread.setDaemon(true);
+        threads.add(thread);
+      }
+    }
+
+    void start() {
+      for (Thread thread : threads) {
+        thread.start();
+      }
+    }
+
+    void join() throws InterruptedException {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+
+    /**
+     * Applies the stage to each record until the end marker arrives. A worker
+     * which is interrupted stops applying the stage and drops the records it
+     * takes, such that upstream workers never block on a stage which has
+     * stopped. However a worker stops, the last one to do so forwards the end
+     * marker downstream such that later stages, and {@link #await()}, finish.
+     */
+    private void run() {
+      boolean interrupted = false;
+      try {
+        while (true) {
+          Object record;
+          try {
+            record = in.take();
+          } catch (InterruptedException e) {
+            interrupted = interrupted(interrupted);
+            continue;
+          }
+          if (record == END) {
+            // leave the marker for sibling workers, the last one forwards it
+            putUninterruptibly(in, END);
+            return;
+          }
+          if (interrupted) {
+            failed.incrementAndGet();
+            continue;
+          }
+          try {
+            Object result = stage.apply(record);
+            processed.incrementAndGet();
+            if (result != null && out != null) {
+              out.put(result);
+            }
+          } catch (InterruptedException e) {
+            interrupted = interrupted(interrupted);
+          } catch (Exception e) {
+            failed.incrementAndGet();
+            LOG.error("Error in {} stage whilst processing {}", name, record, e);
+          }
+        }
+      } finally {
+        if (running.decrementAndGet() == 0 && out != null) {
+          putUninterruptibly(out, END);
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private boolean interrupted(boolean alreadyInterrupted) {
+      if (!alreadyInterrupted) {
+        LOG.warn("{} stage worker interrupted, dropping its remaining records.", name);
+      }
+      return true;
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Object> queue, Object record) {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          queue.put(record);
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name + "[processed=" + processed.get() + ", failed=" + failed.get() + "]";
+    }
+  }
+
+}
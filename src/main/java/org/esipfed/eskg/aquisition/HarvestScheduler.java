@@ -0,0 +1,405 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.esipfed.eskg.mapper.MapperFactory;
+import org.esipfed.eskg.mapper.ontology.PODAACOntologyMapper;
+import org.esipfed.eskg.metrics.MetricsReporter;
+import org.esipfed.eskg.structures.DIF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Harvests every configured {@link HarvestSource} concurrently into a single
+ * ontology model. Each source is searched on its own thread and its records
+ * fetched through its own {@link HarvestPipeline}, such that a slow source
+ * does not hold up the fetching of the others. Records from every source are
+ * mapped on a single thread at a time, and the model is written once when
+ * every source has completed. If any source fails the model is not written. The scheduler is
+ * configured with
+ * <ul>
+ * <li><b>eskg.harvest.sources</b>; comma separated names of the sources to
+ * harvest, by default every source discovered on the classpath under its own
+ * name.</li>
+ * <li><b>eskg.source.&lt;name&gt;.type</b>; the {@link HarvestSource#getName()}
+ * of the implementation a source is an instance of, defaulting to the
+ * source's name, such that one implementation may be harvested several times
+ * under different names and configurations.</li>
+ * <li><b>eskg.source.&lt;name&gt;.concurrency</b>; the number of records
+ * fetched concurrently from the source.</li>
+ * <li><b>eskg.source.&lt;name&gt;.rate</b>; the maximum number of records
+ * fetched per second from the source, unlimited when zero.</li>
+ * </ul>
+ * Any other <code>eskg.source.&lt;name&gt;.*</code> property overrides the
+ * corresponding <code>eskg.*</code> property for that source alone, for example
+ * <code>eskg.source.podaac.journal.dir</code>. If any source is partial, for
+ * example restricted by a {@link DatasetSearchFilter}, records not supplied
+ * during a harvest are kept rather than removed from the model.
+ */
+public class HarvestScheduler implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HarvestScheduler.class);
+
+  private static final String HARVEST_SOURCES = "eskg.harvest.sources";
+  private static final String SOURCE_PREFIX = "eskg.source.";
+  private static final int DEFAULT_SOURCE_CONCURRENCY = 8;
+  private static final String PIPELINE_QUEUE_CAPACITY = "eskg.pipeline.queueCapacity";
+  private static final int DEFAULT_PIPELINE_QUEUE_CAPACITY = 64;
+
+  private final Properties props;
+
+  /** every source opened, keyed by its instance name */
+  private final Map<String, HarvestSource> sources;
+
+  private final PODAACOntologyMapper ontologyMapper = new PODAACOntologyMapper();
+
+  /**
+   * Discovers and opens the sources selected by
+   * <code>eskg.harvest.sources</code>.
+   *
+   * @param props
+   *          runtime properties
+   * @throws IOException
+   *           if a source cannot be opened
+   */
+  public HarvestScheduler(Properties props) throws IOException {
+    this.props = props;
+    this.sources = discoverSources(props);
+    try {
+      for (Map.Entry<String, HarvestSource> source : sources.entrySet()) {
+        HarvestSource instance = source.getValue();
+        // records are parsed by the mapper for the format the source serves
+        instance.open(sourceProperties(source.getKey()), MapperFactory.create(instance.getMapperId()));
+      }
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a new instance of every source selected by
+   * <code>eskg.harvest.sources</code> from the {@link HarvestSource}
+   * implementations on the classpath.
+   *
+   * @param props
+   *          runtime properties
+   * @return the sources, keyed by their instance name
+   * @throws IllegalArgumentException
+   *           if the implementation of a selected source cannot be found
+   */
+  public static Map<String, HarvestSource> discoverSources(Properties props) {
+    String selected = props.getProperty(HARVEST_SOURCES, "").trim();
+    Set<String> names = new LinkedHashSet<>();
+    for (String name : selected.split(",")) {
+      if (!name.trim().isEmpty()) {
+        names.add(name.trim());
+      }
+    }
+    Map<String, HarvestSource> sources = new LinkedHashMap<>();
+    if (names.isEmpty()) {
+      for (HarvestSource source : ServiceLoader.load(HarvestSource.class)) {
+        sources.put(source.getName(), source);
+      }
+      if (sources.isEmpty()) {
+        throw new IllegalStateException("No harvest sources found on the classpath.");
+      }
+      return sources;
+    }
+    Set<String> unknown = new LinkedHashSet<>();
+    for (String name : names) {
+      String type = props.getProperty(SOURCE_PREFIX + name + ".type", name).trim();
+      HarvestSource source = newSource(type);
+      if (source == null) {
+        unknown.add(type);
+      } else {
+        sources.put(name, source);
+      }
+    }
+    if (!unknown.isEmpty()) {
+      Set<String> found = new LinkedHashSet<>();
+      for (HarvestSource source : ServiceLoader.load(HarvestSource.class)) {
+        found.add(source.getName());
+      }
+      throw new IllegalArgumentException("Unknown harvest source type(s) " + unknown + ", available types are " + found);
+    }
+    return sources;
+  }
+
+  /**
+   * @return a new instance of the implementation with the given name, or null
+   *         if there is none
+   */
+  private static HarvestSource newSource(String type) {
+    // every load instantiates afresh, such that instances share no state
+    for (HarvestSource source : ServiceLoader.load(HarvestSource.class)) {
+      if (source.getName().equals(type)) {
+        return source;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Harvests every source concurrently, mapping their records into a single
+   * model which is written once every source has completed. The scheduler
+   * may harvest any number of times, sources and the mapper are kept open
+   * between harvests.
+   *
+   * @return the number of records mapped
+   * @throws IOException
+   *           if any source fails, in which case the model is not written
+   */
+  public long harvest() throws IOException {
+    long start = System.nanoTime();
+    LOG.info("Harvesting {} source(s) concurrently", sources.size());
+    boolean partial = false;
+    for (HarvestSource source : sources.values()) {
+      partial |= source.isPartial();
+    }
+    ontologyMapper.begin(props, partial);
+    for (HarvestSource source : sources.values()) {
+      source.setRetainable(ontologyMapper.isIncremental() ? ontologyMapper::retainableEntryId : null);
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(sources.size(), runnable -> {
+      Thread thread = new Thread(runnable, "eskg-source-" + threadCount.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    Map<String, Future<Long>> harvests = new LinkedHashMap<>();
+    for (Map.Entry<String, HarvestSource> source : sources.entrySet()) {
+      harvests.put(source.getKey(), executor.submit(() -> harvestSource(source.getKey(), source.getValue())));
+    }
+    List<String> failed = new ArrayList<>();
+    long records = 0;
+    try {
+      for (Map.Entry<String, Future<Long>> harvest : harvests.entrySet()) {
+        try {
+          records += harvest.getValue().get();
+        } catch (ExecutionException e) {
+          LOG.error("Error harvesting source {}", harvest.getKey(), e.getCause());
+          failed.add(harvest.getKey());
+        }
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      awaitTermination(executor);
+      Thread.currentThread().interrupt();
+      ontologyMapper.abort();
+      throw new InterruptedIOException("Interrupted whilst harvesting.");
+    } finally {
+      executor.shutdown();
+    }
+    if (!failed.isEmpty()) {
+      ontologyMapper.abort();
+      throw new IOException("Harvest of source(s) " + failed + " failed, the model has not been written.");
+    }
+    ontologyMapper.finish(props);
+    for (HarvestSource source : sources.values()) {
+      source.complete();
+    }
+    LOG.info("Harvested {} records from {} source(s) in {} ms", records, sources.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return records;
+  }
+
+  /**
+   * Searches a single source and fetches its records within the source's
+   * concurrency and rate budget.
+   *
+   * @return the number of records mapped from the source
+   */
+  private long harvestSource(String name, HarvestSource source) throws IOException {
+    int concurrency = getInt(SOURCE_PREFIX + name + ".concurrency", DEFAULT_SOURCE_CONCURRENCY);
+    double rate = Double.parseDouble(props.getProperty(SOURCE_PREFIX + name + ".rate", "0").trim());
+    int capacity = getInt(PIPELINE_QUEUE_CAPACITY, DEFAULT_PIPELINE_QUEUE_CAPACITY);
+    RateBudget budget = rate > 0 ? new RateBudget(rate) : null;
+    LOG.info("Harvesting {} with {} fetch workers{}", name, concurrency, budget != null ? " at up to " + rate + " records/s" : "");
+
+    long start = System.nanoTime();
+    AtomicLong mapped = new AtomicLong();
+    // each record travels with the key of the dataset it was fetched for
+    HarvestPipeline<String, Map.Entry<String, DIF>> pipeline = HarvestPipeline.<String> source(capacity)
+        .stage(name + "-fetch", concurrency, capacity, recordLink -> {
+          if (budget != null) {
+            budget.acquire();
+          }
+          return new AbstractMap.SimpleImmutableEntry<>(source.getDatasetKey(recordLink), source.fetch(recordLink));
+        });
+    pipeline.start(name + "-map", fetched -> {
+      DIF dif = fetched.getValue();
+      // the mapper is shared by every source and is not thread safe
+      synchronized (ontologyMapper) {
+        if (source.isRetained(dif)) {
+          ontologyMapper.retain(dif.getEntryID(), fetched.getKey());
+        } else {
+          ontologyMapper.add(dif, source.getContentDigest(dif.getEntryID()), fetched.getKey());
+        }
+      }
+      mapped.incrementAndGet();
+    });
+    try {
+      source.search(recordLink -> {
+        // a listed record which then fails keeps its previous individual
+        ontologyMapper.listed(source.getDatasetKey(recordLink));
+        pipeline.submit(recordLink);
+      });
+    } finally {
+      pipeline.complete();
+      try {
+        pipeline.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted whilst harvesting " + name);
+      }
+    }
+    LOG.info("Harvested {} records from {} in {} ms", mapped.get(), name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return mapped.get();
+  }
+
+  /**
+   * Overlays the <code>eskg.source.&lt;name&gt;.*</code> properties of a
+   * source onto the corresponding <code>eskg.*</code> properties.
+   */
+  private Properties sourceProperties(String name) {
+    Properties sourceProps = new Properties();
+    sourceProps.putAll(props);
+    String prefix = SOURCE_PREFIX + name + ".";
+    for (String key : props.stringPropertyNames()) {
+      if (key.startsWith(prefix)) {
+        sourceProps.setProperty("eskg." + key.substring(prefix.length()), props.getProperty(key));
+      }
+    }
+    return sourceProps;
+  }
+
+  private static void awaitTermination(ExecutorService executor) {
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private int getInt(String key, int defaultValue) {
+    return Integer.parseInt(props.getProperty(key, Integer.toString(defaultValue)).trim());
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (HarvestSource source : sources.values()) {
+      try {
+        source.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Spaces requests evenly such that no more than a fixed number are made per
+   * second, callers reserve the next free slot and sleep until it arrives.
+   */
+  private static class RateBudget {
+
+    private final long intervalNanos;
+    private long next = System.nanoTime();
+
+    RateBudget(double perSecond) {
+      this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    }
+
+    void acquire() throws InterruptedException {
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        long slot = Math.max(now, next);
+        next = slot + intervalNanos;
+        wait = slot - now;
+      }
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+  }
+
+  /**
+   * Any <code>eskg.*</code> system property overrides the corresponding
+   * property in <code>eskg.properties</code>, for example
+   * <code>-Deskg.harvest.sources=podaac</code>. Harvest metrics are reported
+   * as configured by <code>eskg.metrics.*</code>. Every source may be
+   * restricted with the options of a {@link DatasetSearchFilter}, such as
+   * <code>--bbox</code> or <code>--shortName</code>, whose matching records
+   * are merged into the existing graph.
+   *
+   * @param args
+   *          optional search filter options
+   * @throws IOException
+   *           if the harvest fails
+   */
+  public static void main(String[] args) throws IOException {
+    Options opts = DatasetSearchFilter.addOptions(new Options());
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(opts, args);
+    } catch (ParseException e) {
+      LOG.error("Failed to parse command line {}", e.getMessage());
+      new HelpFormatter().printHelp(HarvestScheduler.class.getSimpleName(), opts);
+      System.exit(-1);
+    }
+
+    Properties props = PODAACWebServiceClient.loadProperties();
+    props.putAll(PODAACWebServiceClient.systemOverrides());
+    DatasetSearchFilter.applyOptions(cmd, props);
+    try (HarvestScheduler scheduler = new HarvestScheduler(props)) {
+      MetricsReporter reporter = MetricsReporter.fromProperties(props);
+      try {
+        scheduler.harvest();
+      } finally {
+        reporter.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.esipfed.eskg.mapper.ObjectMapper;
+import org.esipfed.eskg.mapper.ObjectMapper.MapperID;
+import org.esipfed.eskg.structures.DIF;
+
+/**
+ * A catalog, typically a DAAC, from which dataset records are harvested.
+ * Implementations are discovered through {@link java.util.ServiceLoader} by
+ * listing them in
+ * <code>META-INF/services/org.esipfed.eskg.aquisition.HarvestSource</code>,
+ * and must provide a public no argument constructor. A source is run by a
+ * {@link HarvestScheduler}, which may open several instances of one
+ * implementation under different names, searches each for record links and
+ * fetches each record concurrently within the budget configured for the
+ * instance. The scheduler opens every source with the {@link ObjectMapper} for
+ * the record format named by {@link #getMapperId()}, through which the source
+ * parses its records into {@link DIF} for the scheduler to map into a single
+ * {@link org.esipfed.eskg.mapper.ontology.PODAACOntologyMapper}.
+ */
+public interface HarvestSource extends Closeable {
+
+  /**
+   * @return the unique name of the implementation, which names a source
+   *         selected through <code>eskg.harvest.sources</code> unless the
+   *         source's <code>eskg.source.&lt;name&gt;.type</code> names it
+   *         instead
+   */
+  String getName();
+
+  /**
+   * @return the format of the records served by the source, whose mapper the
+   *         source is opened with
+   */
+  MapperID getMapperId();
+
+  /**
+   * Prepares the source for harvesting.
+   *
+   * @param props
+   *          runtime properties, overlaid with those configured for the named
+   *          instance of the source
+   * @param recordMapper
+   *          the mapper for {@link #getMapperId()}, through which every record
+   *          fetched is parsed
+   * @throws IOException
+   *           if the source cannot be opened
+   */
+  void open(Properties props, ObjectMapper recordMapper) throws IOException;
+
+  /**
+   * Searches the source's catalog, handing the link of every record to the
+   * supplied consumer as it is found. Each record must be supplied only once.
+   *
+   * @param recordLinkConsumer
+   *          receives each record link
+   * @throws IOException
+   *           if the catalog cannot be searched
+   */
+  void search(Consumer<String> recordLinkConsumer) throws IOException;
+
+  /**
+   * Fetches and parses a single record. Called concurrently from many threads.
+   *
+   * @param recordLink
+   *          a link supplied by {@link #search(Consumer)}
+   * @return the record
+   * @throws IOException
+   *           if the record cannot be fetched or parsed
+   */
+  DIF fetch(String recordLink) throws IOException;
+
+  /**
+   * @param recordLink
+   *          a link supplied by {@link #search(Consumer)}
+   * @return the key identifying the record's dataset within the catalog, such
+   *         that the links of a single dataset share one key
+   */
+  default String getDatasetKey(String recordLink) {
+    return recordLink;
+  }
+
+  /**
+   * @return a digest of the content the record with the given Entry_ID was
+   *         parsed from, or null if it is unknown
+   */
+  String getContentDigest(String entryId);
+
+  /**
+   * @return true if the source harvests only part of its catalog, such that
+   *         records it did not supply must be kept rather than removed
+   */
+  default boolean isPartial() {
+    return false;
+  }
+
+  /**
+   * Called at the start of each harvest with a lookup of the record the mapper
+   * can keep for a dataset, as built from content with a given digest, without
+   * the record being parsed again. A source which recognises unchanged content
+   * may then return a retained record from {@link #fetch(String)}.
+   *
+   * @param retainable
+   *          maps a dataset key, see {@link #getDatasetKey(String)}, and a
+   *          content digest to the Entry_ID of the record to retain or null,
+   *          or is itself null if the harvest is not incremental and every
+   *          record must be parsed
+   */
+  default void setRetainable(BiFunction<String, String, String> retainable) {
+    // sources parse every record by default
+  }
+
+  /**
+   * @param record
+   *          a record returned by {@link #fetch(String)}
+   * @return true if the record was not parsed because its content is
+   *         unchanged, in which case only its Entry_ID is set and the mapper
+   *         should retain its previous individual
+   */
+  default boolean isRetained(DIF record) {
+    return false;
+  }
+
+  /**
+   * Called once every record harvested from the source has been mapped and
+   * the model written, such that any state kept to resume an interrupted
+   * harvest may be released.
+   */
+  void complete();
+
+}
@@ -0,0 +1,412 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent, size bounded, on-disk cache of HTTP response bodies which
+ * supports conditional GET requests. Each cached body is stored alongside the
+ * <code>ETag</code> and <code>Last-Modified</code> headers it was served with.
+ * On a subsequent request these are sent as <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, and a <code>304 Not Modified</code> response
+ * is served from local storage. When the cache grows beyond its limit the
+ * least recently used entries are evicted. The cache is configured with
+ * <ul>
+ * <li><b>eskg.cache.dir</b>; directory in which responses are stored, the
+ * cache is disabled when this is not set.</li>
+ * <li><b>eskg.cache.maxBytes</b>; maximum combined size of all cached
+ * bodies.</li>
+ * </ul>
+ */
+public class HttpResponseCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpResponseCache.class);
+
+  private static final String BODY_SUFFIX = ".body";
+  private static final String META_SUFFIX = ".meta";
+  private static final String URL_KEY = "url";
+  private static final String ETAG_KEY = "etag";
+  private static final String LAST_MODIFIED_KEY = "lastModified";
+
+  private final Path cacheDir;
+
+  private final long maxBytes;
+
+  /** body sizes keyed by entry, in least to most recently used order */
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long totalBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * A cached response body and the validators it was served with.
+   */
+  public static class Entry {
+    private final String key;
+    private final String etag;
+    private final String lastModified;
+
+    Entry(String key, String etag, String lastModified) {
+      this.key = key;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Creates a cache rooted at the given directory, loading any entries left
+   * by a previous run.
+   *
+   * @param cacheDir
+   *          directory in which responses are stored
+   * @param maxBytes
+   *          maximum combined size of all cached bodies
+   * @throws IOException
+   *           if the directory cannot be created or read
+   */
+  public HttpResponseCache(Path cacheDir, long maxBytes) throws IOException {
+    this.cacheDir = cacheDir;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(cacheDir);
+    load();
+  }
+
+  /**
+   * Creates a cache from runtime properties.
+   *
+   * @param props
+   *          runtime properties
+   * @return the cache, or null if <code>eskg.cache.dir</code> is not set
+   * @throws IOException
+   *           if the cache directory cannot be created or read
+   */
+  public static HttpResponseCache fromProperties(Properties props) throws IOException {
+    String dir = props.getProperty("eskg.cache.dir");
+    if (dir == null || dir.trim().isEmpty()) {
+      return null;
+    }
+    long maxBytes = Long.parseLong(props.getProperty("eskg.cache.maxBytes", Long.toString(512L * 1024 * 1024)).trim());
+    return new HttpResponseCache(new File(dir.trim()).toPath(), maxBytes);
+  }
+
+  /**
+   * @param url
+   *          the requested URL
+   * @return the cached entry for the URL, or null if there is none
+   */
+  public Entry lookup(String url) {
+    String key = key(url);
+    synchronized (this) {
+      if (!entries.containsKey(key)) {
+        return null;
+      }
+    }
+    Properties meta = new Properties();
+    try (Reader reader = Files.newBufferedReader(metaFile(key), StandardCharsets.UTF_8)) {
+      meta.load(reader);
+    } catch (IOException e) {
+      LOG.warn("Unable to read cache metadata for {}, ignoring cached entry.", url, e);
+      return null;
+    }
+    return new Entry(key, meta.getProperty(ETAG_KEY), meta.getProperty(LAST_MODIFIED_KEY));
+  }
+
+  /**
+   * Adds the validators of a cached entry to a request such that the server
+   * may reply with <code>304 Not Modified</code>.
+   *
+   * @param request
+   *          the request to be executed
+   * @param entry
+   *          the cached entry for the requested URL
+   */
+  public void addConditionalHeaders(HttpRequestBase request, Entry entry) {
+    if (entry.etag != null) {
+      request.addHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+    }
+    if (entry.lastModified != null) {
+      request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+    }
+  }
+
+  /**
+   * Opens the locally stored body of an entry following a
+   * <code>304 Not Modified</code> response.
+   *
+   * @param entry
+   *          the cached entry
+   * @return the stored response body
+   * @throws IOException
+   *           if the body cannot be read
+   */
+  public InputStream openBody(Entry entry) throws IOException {
+    hits.incrementAndGet();
+    File body = bodyFile(entry.key).toFile();
+    synchronized (this) {
+      // touch the entry such that it is evicted last, here and in later runs
+      entries.get(entry.key);
+    }
+    if (!body.setLastModified(System.currentTimeMillis())) {
+      LOG.debug("Unable to update access time of {}", body);
+    }
+    return Files.newInputStream(body.toPath());
+  }
+
+  /**
+   * Wraps a <code>200 OK</code> response body such that it is written to the
+   * cache as it is read. The entry is committed once the stream is closed,
+   * any content not read by the caller is drained into the cache first. If
+   * the response carries neither an <code>ETag</code> nor a
+   * <code>Last-Modified</code> header it cannot be revalidated and is not
+   * cached.
+   *
+   * @param url
+   *          the requested URL
+   * @param response
+   *          the response, used for its validators
+   * @param body
+   *          the response body
+   * @return a stream which should be read in place of the body
+   * @throws IOException
+   *           if the cache file cannot be created
+   */
+  public InputStream store(String url, HttpResponse response, InputStream body) throws IOException {
+    misses.incrementAndGet();
+    Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+    Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+    if (etag == null && lastModified == null) {
+      return body;
+    }
+    Properties meta = new Properties();
+    meta.setProperty(URL_KEY, url);
+    if (etag != null) {
+      meta.setProperty(ETAG_KEY, etag.getValue());
+    }
+    if (lastModified != null) {
+      meta.setProperty(LAST_MODIFIED_KEY, lastModified.getValue());
+    }
+    return new CachingInputStream(body, key(url), meta);
+  }
+
+  /**
+   * @return the number of responses served from local storage
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of responses which had to be downloaded
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "hits=" + hits.get() + ", misses=" + misses.get() + ", entries=" + entries.size() + ", bytes=" + totalBytes;
+  }
+
+  private void commit(String key, Path tempBody, Properties meta) throws IOException {
+    Path metaTemp = Files.createTempFile(cacheDir, key, ".tmp");
+    try (Writer writer = Files.newBufferedWriter(metaTemp, StandardCharsets.UTF_8)) {
+      meta.store(writer, null);
+    }
+    long size = Files.size(tempBody);
+    synchronized (this) {
+      Files.move(tempBody, bodyFile(key), StandardCopyOption.REPLACE_EXISTING);
+      Files.move(metaTemp, metaFile(key), StandardCopyOption.REPLACE_EXISTING);
+      Long previous = entries.put(key, size);
+      totalBytes += size - (previous == null ? 0 : previous);
+      evict(key);
+    }
+  }
+
+  private void evict(String retain) {
+    Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, Long> eldest = it.next();
+      if (eldest.getKey().equals(retain)) {
+        continue;
+      }
+      try {
+        Files.deleteIfExists(metaFile(eldest.getKey()));
+        Files.deleteIfExists(bodyFile(eldest.getKey()));
+      } catch (IOException e) {
+        LOG.warn("Unable to evict cache entry {}", eldest.getKey(), e);
+      }
+      totalBytes -= eldest.getValue();
+      it.remove();
+    }
+  }
+
+  private void load() throws IOException {
+    List<File> bodies = new ArrayList<>();
+    File[] files = cacheDir.toFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.endsWith(BODY_SUFFIX) && metaFile(name.substring(0, name.length() - BODY_SUFFIX.length())).toFile().exists()) {
+          bodies.add(file);
+        } else if (name.endsWith(".tmp")) {
+          // left behind by an interrupted run
+          Files.deleteIfExists(file.toPath());
+        }
+      }
+    }
+    bodies.sort(Comparator.comparingLong(File::lastModified));
+    synchronized (this) {
+      for (File body : bodies) {
+        String name = body.getName();
+        entries.put(name.substring(0, name.length() - BODY_SUFFIX.length()), body.length());
+        totalBytes += body.length();
+      }
+      evict(null);
+    }
+    LOG.info("Loaded HTTP cache from {}: {}", cacheDir, this);
+  }
+
+  private Path bodyFile(String key) {
+    return cacheDir.resolve(key + BODY_SUFFIX);
+  }
+
+  private Path metaFile(String key) {
+    return cacheDir.resolve(key + META_SUFFIX);
+  }
+
+  private static String key(String url) {
+    return Digests.sha1Hex(url);
+  }
+
+  /**
+   * Copies everything read from the response body into a temporary file which
+   * becomes the cached entry once the stream has been closed cleanly.
+   */
+  private class CachingInputStream extends FilterInputStream {
+
+    private final String key;
+    private final Properties meta;
+    private final Path tempBody;
+    private final OutputStream out;
+    private boolean failed;
+    private boolean closed;
+
+    CachingInputStream(InputStream in, String key, Properties meta) throws IOException {
+      super(in);
+      this.key = key;
+      this.meta = meta;
+      this.tempBody = Files.createTempFile(cacheDir, key, ".tmp");
+      this.out = Files.newOutputStream(tempBody);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n;
+      try {
+        n = super.read(b, off, len);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+      if (n > 0) {
+        out.write(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipped content must still reach the cache
+      byte[] buffer = new byte[(int) Math.min(n, 8192)];
+      long skipped = 0;
+      while (skipped < n) {
+        int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+        if (read == -1) {
+          break;
+        }
+        skipped += read;
+      }
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (!failed) {
+          byte[] buffer = new byte[8192];
+          while (read(buffer, 0, buffer.length) != -1) {
+            // drain whatever the parser left unread
+          }
+        }
+      } catch (IOException e) {
+        failed = true;
+        LOG.debug("Unable to drain response for caching", e);
+      } finally {
+        out.close();
+        super.close();
+        if (failed) {
+          Files.deleteIfExists(tempBody);
+        } else {
+          commit(key, tempBody, meta);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.esipfed.eskg.mapper.ObjectMapper;
+import org.esipfed.eskg.mapper.ObjectMapper.MapperID;
+import org.esipfed.eskg.structures.DIF;
+
+/**
+ * Harvests GCMD records from the PO.DAAC Dataset Search and Dataset Metadata
+ * WebServices through a {@link PODAACWebServiceClient}.
+ */
+public class PODAACHarvestSource implements HarvestSource {
+
+  private PODAACWebServiceClient client;
+
+  @Override
+  public String getName() {
+    return "podaac";
+  }
+
+  @Override
+  public MapperID getMapperId() {
+    return MapperID.PODAAC_GCMD;
+  }
+
+  @Override
+  public void open(Properties props, ObjectMapper recordMapper) {
+    client = new PODAACWebServiceClient(props);
+    client.setRecordMapper(recordMapper);
+  }
+
+  @Override
+  public void search(Consumer<String> recordLinkConsumer) throws IOException {
+    client.searchDatasets(recordLinkConsumer);
+  }
+
+  @Override
+  public DIF fetch(String recordLink) throws IOException {
+    return client.retrieveGCMDRecord(recordLink);
+  }
+
+  @Override
+  public String getDatasetKey(String recordLink) {
+    return PODAACWebServiceClient.datasetKey(recordLink);
+  }
+
+  @Override
+  public String getContentDigest(String entryId) {
+    return client.getContentDigest(entryId);
+  }
+
+  @Override
+  public void setRetainable(BiFunction<String, String, String> retainable) {
+    client.setRetainable(retainable);
+  }
+
+  @Override
+  public boolean isRetained(DIF record) {
+    return PODAACWebServiceClient.isRetained(record);
+  }
+
+  @Override
+  public boolean isPartial() {
+    return client.isPartial();
+  }
+
+  @Override
+  public void complete() {
+    client.completeHarvest();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (client != null) {
+      client.close();
+    }
+  }
+
+}
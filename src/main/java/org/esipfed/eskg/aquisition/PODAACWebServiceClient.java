@@ -13,34 +13,68 @@
  */
 package org.esipfed.eskg.aquisition;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.InterruptedIOException;
+import java.security.DigestInputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.esipfed.eskg.mapper.PODAACWebServiceObjectMapper;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.esipfed.eskg.mapper.MapperFactory;
+import org.esipfed.eskg.mapper.ObjectMapper;
 import org.esipfed.eskg.mapper.ObjectMapper.MapperID;
 import org.esipfed.eskg.mapper.ontology.PODAACOntologyMapper;
+import org.esipfed.eskg.metrics.Histogram;
+import org.esipfed.eskg.metrics.MetricsRegistry;
+import org.esipfed.eskg.metrics.MetricsReporter;
 import org.esipfed.eskg.structures.DIF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * A thin client for interacting with the <a
@@ -48,135 +82,757 @@ import org.w3c.dom.NodeList;
  * 
  * @author lewismc
  */
-public class PODAACWebServiceClient {
+public class PODAACWebServiceClient implements Closeable {
 
   private static final Logger LOG = LoggerFactory.getLogger(PODAACWebServiceClient.class);
   private static final String ESKG_DEFAULT_PROPERTIES_FILE = "eskg.properties";
+  private static final String HARVEST_CONCURRENCY = "eskg.harvest.concurrency";
+  private static final int DEFAULT_HARVEST_CONCURRENCY = 8;
+  private static final String HARVEST_RETRIES = "eskg.harvest.retries";
+  private static final String RETRY_BASE_DELAY = "eskg.harvest.retryBaseDelay";
+  private static final String RETRY_MAX_DELAY = "eskg.harvest.retryMaxDelay";
+  private static final String REQUEST_DEADLINE = "eskg.harvest.requestDeadline";
+  private static final String HARVEST_HEDGING = "eskg.harvest.hedging";
+  private static final String HARVEST_PIPELINE = "eskg.harvest.pipeline";
+  private static final String SKIP_UNCHANGED = "eskg.harvest.skipUnchanged";
+  private static final String PIPELINE_FETCH_WORKERS = "eskg.pipeline.fetchWorkers";
+  private static final String PIPELINE_PARSE_WORKERS = "eskg.pipeline.parseWorkers";
+  private static final String PIPELINE_QUEUE_CAPACITY = "eskg.pipeline.queueCapacity";
+  private static final int DEFAULT_PIPELINE_QUEUE_CAPACITY = 64;
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
   private Properties props;
+  private PooledHttpClient httpClient;
+  private HttpResponseCache responseCache;
+  private HarvestArchive archive;
+  private HarvestJournal journal;
+  private AdaptiveConcurrencyLimiter concurrencyLimiter;
+  private final PODAACOntologyMapper ontologyMapper = new PODAACOntologyMapper();
+  /** maps each GCMD response body to a DIF */
+  private ObjectMapper recordMapper = MapperFactory.create(MapperID.PODAAC_GCMD);
+  /** digests of each GCMD response body keyed by Entry_ID */
+  private final Map<String, String> contentDigests = new ConcurrentHashMap<>();
+  /** the datasetId each GCMD record was retrieved for, keyed by Entry_ID */
+  private final Map<String, String> datasetKeys = new ConcurrentHashMap<>();
+  private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+  private final LongAdder retriedRequests = METRICS.counter("podaac.retries");
+  private final LongAdder hedgedRequests = METRICS.counter("podaac.hedges");
+  private final LongAdder hedgesWon = METRICS.counter("podaac.hedges.won");
+  private final LongAdder requests = METRICS.counter("podaac.requests");
+  private final LongAdder failedRequests = METRICS.counter("podaac.failures");
+  private final LongAdder retrievedRecords = METRICS.counter("podaac.records");
+  private final LongAdder unchangedRecords = METRICS.counter("podaac.records.unchanged");
+  private final LongAdder requestsInFlight = METRICS.level("podaac.requests.inflight");
+  /** microseconds from sending a request to receiving its status line */
+  private final Histogram requestLatency = METRICS.histogram("podaac.request.latency");
+  /** microseconds from sending a request to consuming its response */
+  private final Histogram requestDuration = METRICS.histogram("podaac.request.duration");
+  /** requests aborted because the other request of their hedged pair won */
+  private final Set<HttpGet> hedgeLosers = ConcurrentHashMap.newKeySet();
+  /** runs both requests of a hedged pair, created on first use */
+  private volatile ExecutorService hedgeExecutor;
 
   /*
    * Dataset Search service searches PO.DAAC's dataset catalog, over Level 2,
    * Level 3, and Level 4 datasets, using the following parameters: datasetId,
    * shortName, startTime, endTime, bbox, and others. In this case we set the
-   * 'q' parameter to wildcard and increase the 'itemsPerPage' to more than the
-   * number of Datasets we know to be present within PO.DAAC. Additionally, we
-   * request the response to be serialized as ATOM such that we can extract
-   * individual dataset records.
+   * 'q' parameter to wildcard and request the largest 'itemsPerPage' we can.
+   * The service may cap the page size, so the OpenSearch 'totalResults' and
+   * 'itemsPerPage' values from the first response drive the 'startIndex' of
+   * every subsequent page. Additionally, we request the response to be
+   * serialized as ATOM such that we can extract individual dataset records.
+   * The query is made against eskg.podaac.baseUrl, which may be overridden to
+   * point the client at another deployment such as a MockPODAACServer.
    */
-  private static final String DATASET_SEARCH = 
-          "https://podaac.jpl.nasa.gov/ws/search/dataset/?q=*:*&itemsPerPage=1000&format=atom";
-
-  private static final String DATASET_SEARCH_2 = 
-          "https://podaac.jpl.nasa.gov/ws/search/dataset/?q=*:*&itemsPerPage=1000&format=atom&startIndex=400";
+  private static final String DATASET_SEARCH_PATH = "/ws/search/dataset/?q=*:*&itemsPerPage=1000&format=atom";
+  private static final String PODAAC_BASE_URL = "eskg.podaac.baseUrl";
+  private static final String DEFAULT_PODAAC_BASE_URL = "https://podaac.jpl.nasa.gov";
+  private String datasetSearch;
+  private DatasetSearchFilter searchFilter;
+  private HarvestPartition partition;
+  /**
+   * finds the record the mapper can keep for a dataset without its body being
+   * parsed, null unless the harvest is incremental
+   */
+  private volatile BiFunction<String, String, String> retainable;
 
   /**
-   * Default constructor
+   * Creates a client configured from <code>eskg.properties</code>, with any
+   * of the supplied properties taking precedence.
+   * 
+   * @param overrides
+   *          properties overriding those in <code>eskg.properties</code>
    */
-  private PODAACWebServiceClient() {
-    // default constructor
+  public PODAACWebServiceClient(Properties overrides) {
+    props = loadProperties();
+    props.putAll(overrides);
+    createClients();
   }
 
   /**
    * Core function which encapsulates all data acquisition and model mapping for
-   * PO.DAAC Dataset Search and Dataset Metadata WebServices.
+   * PO.DAAC Dataset Search and Dataset Metadata WebServices. When
+   * <code>eskg.harvest.pipeline</code> is enabled records are fetched, parsed
+   * and mapped concurrently through a {@link HarvestPipeline}, otherwise every
+   * record is retrieved before any is mapped.
    * 
    * @throws IOException
    *           if there is an issue querying the PO.DAAC Webservices
    */
   public void fetchDatasets() throws IOException {
-    List<String> gcmdDatasetList = new ArrayList<>();
+    if (Boolean.parseBoolean(props.getProperty(HARVEST_PIPELINE, "false"))) {
+      fetchDatasetsPipelined();
+      return;
+    }
+    ontologyMapper.begin(props, isPartial());
+    setRetainable(ontologyMapper.isIncremental() ? ontologyMapper::retainableEntryId : null);
     try {
-      for (int i = 0; i < 2; i++) {
-        if (i == 0) {
-          gcmdDatasetList.addAll(parseDatasetSearchAtomXML(executePODAACQuery(DATASET_SEARCH)));
-        } else if (i == 1) {
-          gcmdDatasetList.addAll(parseDatasetSearchAtomXML(executePODAACQuery(DATASET_SEARCH_2)));
-        }
+      List<String> gcmdDatasetList = new ArrayList<>();
+      searchDatasets(listed(gcmdDatasetList::add));
+      for (DIF dif : retrieveGCMDRecords(gcmdDatasetList)) {
+        mapRecord(dif);
       }
+    } catch (IOException | RuntimeException e) {
+      // never write the model from a partial retrieval
+      ontologyMapper.abort();
+      throw e;
+    }
+    ontologyMapper.finish(props);
+    completeHarvest();
+  }
+
+  /**
+   * Harvests through a pipeline of bounded queues such that GCMD records are
+   * fetched as soon as their links are read from the Dataset Search feed, and
+   * each record is parsed and mapped whilst others are still being fetched. At
+   * most a few queues' worth of records are held in memory at any time. The
+   * stages are sized by
+   * <ul>
+   * <li><b>eskg.pipeline.fetchWorkers</b>; threads fetching GCMD records,
+   * defaults to <code>eskg.harvest.concurrency</code>.</li>
+   * <li><b>eskg.pipeline.parseWorkers</b>; threads parsing GCMD records,
+   * defaults to the number of available processors.</li>
+   * <li><b>eskg.pipeline.queueCapacity</b>; the capacity of each queue between
+   * stages.</li>
+   * </ul>
+   * Records are mapped on a single thread as the mapper is not thread safe, and
+   * the model is written once every record has been mapped.
+   */
+  private void fetchDatasetsPipelined() throws IOException {
+    int fetchWorkers = getInt(PIPELINE_FETCH_WORKERS, getInt(HARVEST_CONCURRENCY, DEFAULT_HARVEST_CONCURRENCY));
+    int parseWorkers = getInt(PIPELINE_PARSE_WORKERS, Runtime.getRuntime().availableProcessors());
+    int capacity = getInt(PIPELINE_QUEUE_CAPACITY, DEFAULT_PIPELINE_QUEUE_CAPACITY);
+    LOG.info("Harvesting through pipeline with {} fetch and {} parse workers", fetchWorkers, parseWorkers);
+    if (fetchWorkers >= getInt("eskg.http.maxPerRoute", 16)) {
+      // the Dataset Search response holds a connection whilst records are fetched
+      LOG.warn("eskg.http.maxPerRoute should exceed the {} fetch workers, or workers will wait for connections.", fetchWorkers);
+    }
+
+    HarvestPipeline<String, DIF> pipeline = HarvestPipeline.<String> source(capacity)
+        .stage("fetch", fetchWorkers, capacity, this::fetchGCMDRecord)
+        .stage("parse", parseWorkers, capacity, this::parseFetchedGCMDRecord);
+    ontologyMapper.begin(props, isPartial());
+    setRetainable(ontologyMapper.isIncremental() ? ontologyMapper::retainableEntryId : null);
+    pipeline.start("map", this::mapRecord);
+    try {
+      searchDatasets(listed(pipeline::submit));
     } catch (IOException e) {
-      LOG.error("Error executing PO.DAAC Dataset Search: {} {}", DATASET_SEARCH, e);
+      // let the records already submitted drain, but do not write a partial model
+      pipeline.complete();
+      awaitPipeline(pipeline);
+      ontologyMapper.abort();
+      throw e;
+    }
+    pipeline.complete();
+    awaitPipeline(pipeline);
+    if (Thread.currentThread().isInterrupted()) {
+      ontologyMapper.abort();
+      throw new InterruptedIOException("Interrupted whilst harvesting.");
+    }
+    LOG.info("HTTP connection pool after GCMD retrieval: {}, final concurrency limit {}, {} bytes received for {} bytes decoded",
+        httpClient.getPoolStats(), concurrencyLimiter.getLimit(), httpClient.getWireBytes(), httpClient.getDecodedBytes());
+    LOG.info("{} request(s) retried, {} hedged of which {} won", retriedRequests.sum(), hedgedRequests.sum(), hedgesWon.sum());
+    ontologyMapper.finish(props);
+    completeHarvest();
+  }
+
+  /**
+   * Tells the mapper of every dataset the search lists before handing its
+   * link on, such that a dataset whose record then fails is not removed.
+   */
+  private Consumer<String> listed(Consumer<String> gcmdLinkConsumer) {
+    return gcmdLink -> {
+      ontologyMapper.listed(datasetKey(gcmdLink));
+      gcmdLinkConsumer.accept(gcmdLink);
+    };
+  }
+
+  /**
+   * Maps a record into the harvest begun by the mapper, keeping the previous
+   * individual for a record whose content is unchanged.
+   */
+  private void mapRecord(DIF dif) {
+    if (isRetained(dif)) {
+      ontologyMapper.retain(dif.getEntryID(), getDatasetKey(dif.getEntryID()));
+    } else {
+      ontologyMapper.add(dif, getContentDigest(dif.getEntryID()), getDatasetKey(dif.getEntryID()));
+    }
+  }
+
+  private static void awaitPipeline(HarvestPipeline<?, ?> pipeline) {
+    try {
+      pipeline.await();
+    } catch (InterruptedException e) {
+      LOG.error("Interrupted whilst waiting for the harvest pipeline.", e);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Pages through the Dataset Search WebService, handing the GCMD Metadata
+   * link of every dataset to the supplied consumer as each page is parsed.
+   * 
+   * @param consumer
+   *          receives each GCMD Metadata link
+   * @throws IOException
+   *           if there is an issue querying the Dataset Search WebService
+   */
+  void searchDatasets(Consumer<String> consumer) throws IOException {
+    // overlapping pages, or the same dataset linked through differently
+    // written URLs, must only be harvested once
+    Set<String> seenDatasets = ConcurrentHashMap.newKeySet();
+    AtomicInteger duplicates = new AtomicInteger();
+    AtomicInteger otherPartitions = new AtomicInteger();
+    Consumer<String> gcmdLinkConsumer = gcmdLink -> {
+      String key = datasetKey(gcmdLink);
+      if (!partition.contains(key)) {
+        otherPartitions.incrementAndGet();
+      } else if (seenDatasets.add(key)) {
+        consumer.accept(gcmdLink);
+      } else {
+        duplicates.incrementAndGet();
+        LOG.debug("Skipping duplicate Dataset Search result: {}", gcmdLink);
+      }
+    };
+    // when partitioned by range every worker reads the first page to learn
+    // the number of pages, but its links belong to the first range alone
+    boolean byRange = partition.isPartitioned() && partition.getStrategy() == HarvestPartition.Strategy.RANGE;
+    List<String> firstPageLinks = new ArrayList<>();
+    try {
+      DatasetSearchPage firstPage = executePODAACQuery(datasetSearchQuery(0), body -> {
+        // a retried attempt reads the page afresh, links already handed on are
+        // skipped as duplicates
+        firstPageLinks.clear();
+        return parseDatasetSearchAtomXML(body, byRange ? firstPageLinks::add : gcmdLinkConsumer);
+      });
+
+      List<Long> pages = new ArrayList<>();
+      pages.add(0L);
+      pages.addAll(remainingStartIndexes(firstPage));
+      List<Long> startIndexes = partition.pages(pages);
+      if (byRange && !startIndexes.isEmpty() && startIndexes.get(0) == 0L) {
+        firstPageLinks.forEach(gcmdLinkConsumer);
+      } else {
+        otherPartitions.addAndGet(firstPageLinks.size());
+      }
+      startIndexes = startIndexes.isEmpty() || startIndexes.get(0) != 0L ? startIndexes : startIndexes.subList(1, startIndexes.size());
+      LOG.info("Dataset Search reported {} results, {} further page(s) to fetch", firstPage.getTotalResults(), startIndexes.size());
+      fetchRemainingPages(startIndexes, gcmdLinkConsumer);
+    } catch (IOException e) {
+      LOG.error("Error executing PO.DAAC Dataset Search: {} {}", datasetSearch, e);
       throw new IOException(e);
     }
-    PODAACOntologyMapper ontologyMapper = new PODAACOntologyMapper();
-    ontologyMapper.map(retrieveGCMDRecords(gcmdDatasetList), props);
+    LOG.info("Dataset Search returned {} distinct datasets, {} duplicate result(s) skipped", seenDatasets.size(), duplicates.get());
+    if (partition.isPartitioned()) {
+      LOG.info("Harvested partition {}, {} result(s) on the pages read belong to other partitions", partition, otherPartitions.get());
+    }
   }
 
-  private ByteArrayInputStream executePODAACQuery(String queryString) throws IOException {
-    HttpClient client = HttpClientBuilder.create().build();
-    HttpGet request = new HttpGet(queryString);
+  /**
+   * Canonicalizes a GCMD Metadata link to the <code>datasetId</code> it
+   * identifies, such that links differing only in scheme, host case or
+   * parameter order are recognised as the same dataset. Links without a
+   * <code>datasetId</code> are identified by the link itself.
+   */
+  static String datasetKey(String gcmdLink) {
+    try {
+      for (NameValuePair param : URLEncodedUtils.parse(new URI(gcmdLink.trim()), StandardCharsets.UTF_8)) {
+        if ("datasetId".equalsIgnoreCase(param.getName()) && param.getValue() != null) {
+          return param.getValue().trim();
+        }
+      }
+    } catch (URISyntaxException e) {
+      LOG.debug("Unable to parse GCMD Metadata link {}", gcmdLink, e);
+    }
+    return gcmdLink.trim();
+  }
 
-    // add request header
-    request.addHeader("User-Agent", "ESKG PO.DAAC WebService Client");
-    LOG.info("Executing: {}", request.toString());
-    HttpResponse response = client.execute(request);
+  /**
+   * Reads the Dataset Search pages following the first. Whilst the links of
+   * one page are handed to a consumer which may block, the next page is already
+   * being fetched and parsed on a single prefetch thread, such that at most one
+   * page of links is held ahead of the consumer. Parsing as part of the query
+   * means a malformed page is retried like any other failed request.
+   */
+  private void fetchRemainingPages(List<Long> startIndexes, Consumer<String> gcmdLinkConsumer) throws IOException {
+    if (startIndexes.isEmpty()) {
+      return;
+    }
+    ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "eskg-search-prefetch");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      Future<List<String>> nextPage = prefetchPage(prefetcher, startIndexes.get(0));
+      for (int i = 0; i < startIndexes.size(); i++) {
+        List<String> pageLinks = nextPage.get();
+        if (i + 1 < startIndexes.size()) {
+          nextPage = prefetchPage(prefetcher, startIndexes.get(i + 1));
+        }
+        pageLinks.forEach(gcmdLinkConsumer);
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst reading Dataset Search pages.");
+    } finally {
+      prefetcher.shutdownNow();
+    }
+  }
+
+  private Future<List<String>> prefetchPage(ExecutorService prefetcher, long startIndex) {
+    String query = datasetSearchQuery(startIndex);
+    return prefetcher.submit(() -> executePODAACQuery(query, body -> {
+      // a retried attempt starts the page afresh
+      List<String> pageLinks = new ArrayList<>();
+      parseDatasetSearchAtomXML(body, pageLinks::add);
+      return pageLinks;
+    }));
+  }
+
+  private String datasetSearchQuery(long startIndex) {
+    return startIndex > 0 ? datasetSearch + "&startIndex=" + startIndex : datasetSearch;
+  }
+
+  /**
+   * Calculates the <code>startIndex</code> of each page following the first
+   * such that pages neither overlap nor leave gaps. Where the service does not
+   * report its page size, the number of entries on the first page is used.
+   */
+  static List<Long> remainingStartIndexes(DatasetSearchPage firstPage) {
+    List<Long> startIndexes = new ArrayList<>();
+    long pageSize = firstPage.getItemsPerPage() > 0 ? firstPage.getItemsPerPage() : firstPage.getGcmdLinkCount();
+    if (firstPage.getTotalResults() < 0 || pageSize <= 0) {
+      return startIndexes;
+    }
+    long start = Math.max(firstPage.getStartIndex(), 0) + pageSize;
+    for (; start < firstPage.getTotalResults(); start += pageSize) {
+      startIndexes.add(start);
+    }
+    return startIndexes;
+  }
+
+  /**
+   * Executes a query and streams the raw, undecoded response body directly
+   * into the supplied parser whilst the connection is held open. No
+   * intermediate copy of the body is made and the character encoding is left
+   * for the XML parser to detect from the document itself. When the HTTP
+   * cache is enabled the request is made conditional on any cached copy, and
+   * a <code>304 Not Modified</code> response is parsed from local storage.
+   * When a {@link HarvestArchive} is recording each body is archived before it
+   * is parsed, and when replaying the body is served from the archive without
+   * any request being made.
+   */
+  private <T> T executePODAACQuery(String queryString, ResponseParser<T> parser) throws IOException {
+    return executePODAACQuery(queryString, parser, false);
+  }
+
+  /**
+   * Executes a query as {@link #executePODAACQuery(String, ResponseParser)}
+   * does. Each query must complete within
+   * <code>eskg.harvest.requestDeadline</code> milliseconds, including any
+   * retries. Failures which may be transient, being I/O errors, timeouts and
+   * <code>429</code> or <code>5xx</code> responses, are retried up to
+   * <code>eskg.harvest.retries</code> times after an exponential backoff with
+   * full jitter, such that many requests failing together do not retry
+   * together. A retry is only attempted if it can start before the deadline.
+   * 
+   * @param hedge
+   *          whether the query may be hedged when
+   *          <code>eskg.harvest.hedging</code> is enabled, see
+   *          {@link #executeHedged(String, long)}
+   */
+  private <T> T executePODAACQuery(String queryString, ResponseParser<T> parser, boolean hedge) throws IOException {
+    if (archive != null && archive.isReplaying()) {
+      try (InputStream body = archive.open(queryString)) {
+        return parser.parse(body);
+      }
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getInt(REQUEST_DEADLINE, 300000));
+    int retries = getInt(HARVEST_RETRIES, 4);
+    boolean hedging = hedge && Boolean.parseBoolean(props.getProperty(HARVEST_HEDGING, "false").trim());
+    for (int attempt = 0;; attempt++) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      try {
+        if (hedging) {
+          try (InputStream body = executeHedged(queryString, remaining)) {
+            return parser.parse(body);
+          }
+        }
+        return executePODAACQueryOnce(new HttpGet(queryString), parser, remaining, null);
+      } catch (IOException e) {
+        long delay = backoffMillis(attempt);
+        if (attempt >= retries || !isRetriable(e) || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+          throw e;
+        }
+        retriedRequests.increment();
+        // the limiter also holds back every request until any Retry-After has elapsed
+        LOG.warn("PO.DAAC query {} failed on attempt {} with {}, retrying in {} ms.", queryString, attempt + 1, e, delay);
+        try {
+          TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted whilst waiting to retry " + queryString);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return a random delay between zero and the exponentially growing backoff
+   *         ceiling for the given attempt
+   */
+  private long backoffMillis(int attempt) {
+    long base = getInt(RETRY_BASE_DELAY, 250);
+    long ceiling = Math.min(getInt(RETRY_MAX_DELAY, 10000), base << Math.min(attempt, 20));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
 
-    LOG.info("Response Code : {}", response.getStatusLine().getStatusCode());
+  /**
+   * @return true if a failed query may succeed when retried
+   */
+  private static boolean isRetriable(IOException e) {
+    if (e instanceof HttpResponseException) {
+      int statusCode = ((HttpResponseException) e).getStatusCode();
+      return statusCode == 429 || statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+    // timeouts are retried, interrupts and unresolvable hosts are not
+    return !Thread.currentThread().isInterrupted() && !(e instanceof UnknownHostException);
+  }
 
-    BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), Charset.defaultCharset()));
+  /**
+   * Fetches a body with a hedged request. Should the request still be
+   * outstanding once the p95 latency observed by the
+   * {@link AdaptiveConcurrencyLimiter} has elapsed, an identical request is
+   * sent. The first successful response wins and the other request is
+   * aborted, such that a single slow response costs little more than the p95.
+   * Both requests count against the concurrency limit. The winning body is
+   * buffered such that it is parsed, spooled and recorded only once.
+   */
+  private InputStream executeHedged(String queryString, long timeoutMillis) throws IOException {
+    HttpGet primary = new HttpGet(queryString);
+    HttpGet hedge = new HttpGet(queryString);
+    AttemptProgress progress = new AttemptProgress();
+    CompletableFuture<byte[]> first = fetchAsync(primary, timeoutMillis, progress);
+    long p95 = concurrencyLimiter.getP95();
+    try {
+      if (p95 <= 0 || p95 >= timeoutMillis) {
+        return new ByteArrayInputStream(first.get());
+      }
+      // time spent queued for the concurrency limit is not latency, and the
+      // p95 is of the time taken for the response to start arriving
+      CompletableFuture.anyOf(progress.sent, first).get();
+      try {
+        CompletableFuture.anyOf(progress.responded, first).get(p95, TimeUnit.MILLISECONDS);
+        return new ByteArrayInputStream(first.get());
+      } catch (TimeoutException e) {
+        LOG.debug("No response to {} within p95 of {} ms, sending hedged request.", queryString, p95);
+      }
+      hedgedRequests.increment();
+      CompletableFuture<byte[]> second = fetchAsync(hedge, timeoutMillis - p95, null);
+      CompletableFuture<byte[]> winner = new CompletableFuture<>();
+      AtomicInteger failures = new AtomicInteger();
+      first.whenComplete((body, e) -> settle(winner, body, e, failures, hedge));
+      second.whenComplete((body, e) -> {
+        if (settle(winner, body, e, failures, primary)) {
+          hedgesWon.increment();
+        }
+      });
+      return new ByteArrayInputStream(winner.get());
+    } catch (InterruptedException e) {
+      primary.abort();
+      hedge.abort();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst executing " + queryString);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+  }
 
-    StringBuilder result = new StringBuilder();
-    String line;
-    while ((line = rd.readLine()) != null) {
-      result.append(line);
+  /**
+   * Settles a hedged pair with the outcome of one of its requests, aborting
+   * the other request if this one succeeded first. The pair only fails once
+   * both requests have failed.
+   * 
+   * @return true if this request won
+   */
+  private boolean settle(CompletableFuture<byte[]> winner, byte[] body, Throwable failure, AtomicInteger failures, HttpGet other) {
+    if (failure == null) {
+      if (winner.complete(body)) {
+        hedgeLosers.add(other);
+        other.abort();
+        return true;
+      }
+    } else if (failures.incrementAndGet() == 2) {
+      winner.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
     }
-    return new ByteArrayInputStream(result.toString().getBytes(StandardCharsets.UTF_8));
+    return false;
+  }
+
+  private CompletableFuture<byte[]> fetchAsync(HttpGet request, long timeoutMillis, AttemptProgress progress) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return executePODAACQueryOnce(request, IOUtils::toByteArray, timeoutMillis, progress);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      } finally {
+        hedgeLosers.remove(request);
+      }
+    }, hedgeExecutor());
+  }
+
+  private ExecutorService hedgeExecutor() {
+    if (hedgeExecutor == null) {
+      synchronized (this) {
+        if (hedgeExecutor == null) {
+          AtomicInteger count = new AtomicInteger();
+          hedgeExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "eskg-hedge-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+          });
+        }
+      }
+    }
+    return hedgeExecutor;
+  }
+
+  /**
+   * Signals the progress of a single attempt at a query.
+   */
+  private static class AttemptProgress {
+    /** completed once the concurrency limiter admits the request */
+    final CompletableFuture<Void> sent = new CompletableFuture<>();
+    /** completed once the response status has been received */
+    final CompletableFuture<Void> responded = new CompletableFuture<>();
+  }
+
+  /**
+   * Executes a single attempt at a query.
+   * 
+   * @param progress
+   *          signalled as the attempt progresses, may be null
+   */
+  private <T> T executePODAACQueryOnce(HttpGet request, ResponseParser<T> parser, long timeoutMillis, AttemptProgress progress) throws IOException {
+    String queryString = request.getURI().toString();
+    HttpResponseCache.Entry cached = responseCache != null ? responseCache.lookup(queryString) : null;
+    if (cached != null) {
+      responseCache.addConditionalHeaders(request, cached);
+    }
+    try {
+      concurrencyLimiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst waiting to execute " + queryString);
+    }
+    if (progress != null) {
+      progress.sent.complete(null);
+    }
+    long start = System.nanoTime();
+    AtomicBoolean permitHeld = new AtomicBoolean(true);
+    LOG.info("Executing: {}", request.toString());
+    requests.increment();
+    requestsInFlight.increment();
+    try {
+      return httpClient.execute(request, response -> {
+        int statusCode = response.getStatusLine().getStatusCode();
+        LOG.info("Response Code : {}", statusCode);
+        requestLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        METRICS.counter("podaac.responses." + statusCode).increment();
+        if (progress != null) {
+          progress.responded.complete(null);
+        }
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        concurrencyLimiter.onResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), statusCode,
+            retryAfter != null ? retryAfter.getValue() : null);
+        // the server has answered, a parser which blocks whilst reading the
+        // body, such as one feeding a full pipeline, must not hold back others
+        releasePermit(permitHeld);
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+          try (InputStream body = recorded(queryString, responseCache.openBody(cached))) {
+            return parser.parse(body);
+          }
+        }
+        if (statusCode >= HttpStatus.SC_BAD_REQUEST) {
+          throw new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase());
+        }
+        InputStream content = response.getEntity().getContent();
+        if (responseCache != null && statusCode == HttpStatus.SC_OK) {
+          content = responseCache.store(queryString, response, content);
+        }
+        try (InputStream body = recorded(queryString, content)) {
+          return parser.parse(body);
+        }
+      }, timeoutMillis);
+    } catch (HttpResponseException e) {
+      throw e;
+    } catch (IOException e) {
+      // the loser of a hedged pair is aborted deliberately, not through congestion
+      if (!hedgeLosers.contains(request)) {
+        failedRequests.increment();
+        concurrencyLimiter.onFailure();
+      } else if (permitHeld.get()) {
+        concurrencyLimiter.onAbandoned(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+      throw e;
+    } finally {
+      releasePermit(permitHeld);
+      requestsInFlight.decrement();
+      requestDuration.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+  }
+
+  private void releasePermit(AtomicBoolean permitHeld) {
+    if (permitHeld.compareAndSet(true, false)) {
+      concurrencyLimiter.release();
+    }
+  }
+
+  private InputStream recorded(String queryString, InputStream body) throws IOException {
+    return archive != null ? archive.record(queryString, body) : body;
+  }
+
+  /**
+   * Executes a GCMD query and buffers the raw response body once, for
+   * responses which must be held whilst another request is in progress.
+   */
+  private ByteArrayInputStream executePODAACQuery(String queryString) throws IOException {
+    return executePODAACQuery(queryString, body -> new ByteArrayInputStream(IOUtils.toByteArray(body)), true);
+  }
 
+  /**
+   * Consumes a response body.
+   */
+  @FunctionalInterface
+  private interface ResponseParser<T> {
+    T parse(InputStream body) throws IOException;
   }
 
   /**
    * This function accepts the result of querying the PO.DAAC Dataset Search
-   * WebService using the query provided in the DATASET_SEARCH constant. The
+   * WebService using the query provided in the DATASET_SEARCH_PATH constant. The
    * response is in Atom XML, from each entry result, we therefore simply
-   * extract all instances of 'podaac:datasetId' and add these to an ArrayList.
-   * We use this List to obtain GMCD Metadata for each dataset.
+   * extract all GCMD Metadata links and hand these to the consumer. We use
+   * these links to obtain GMCD Metadata for each dataset. The feed is read
+   * with a StAX pull parser such that each link is emitted as soon as its
+   * entry has been read, and memory use does not grow with the size of the
+   * page. The OpenSearch paging elements of the feed are recorded on the
+   * returned page.
    * 
-   * @param byteArrayInputStream
-   * @return
+   * @param inputStream
+   *          the Atom feed
+   * @param gcmdLinkConsumer
+   *          receives each GCMD Metadata link
+   * @return the parsed {@link DatasetSearchPage}
+   * @throws IOException
+   *           if the feed is malformed or truncated, such that the page is
+   *           retried rather than silently cut short
    */
-  private List<String> parseDatasetSearchAtomXML(ByteArrayInputStream byteArrayInputStream) {
-    List<String> datasetGCMDList = new ArrayList<>();
+  static DatasetSearchPage parseDatasetSearchAtomXML(InputStream inputStream, Consumer<String> gcmdLinkConsumer) throws IOException {
+    DatasetSearchPage page = new DatasetSearchPage();
+    int linkCount = 0;
+    XMLStreamReader reader = null;
     try {
-
-      DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-      Document doc = dBuilder.parse(byteArrayInputStream);
-      doc.getDocumentElement().normalize();
-      Element root = doc.getDocumentElement();
-      NodeList firstChildNodes = root.getChildNodes();
-
-      for (int i = 0; i < firstChildNodes.getLength(); i++) {
-        if ("entry".equals(firstChildNodes.item(i).getNodeName())) {
-          Node entryNode = firstChildNodes.item(i);
-
-          if (entryNode.getNodeType() == Node.ELEMENT_NODE) {
-
-            Element entryElement = (Element) entryNode;
-            NodeList entryElementChildren = entryElement.getChildNodes();
-            for (int j = 0; j < entryElementChildren.getLength(); j++) {
-              Node entryElementChild = entryElementChildren.item(j);
-              if ("link".equals(entryElementChild.getNodeName())) {
-                Element linkNode = (Element)entryElementChild;
-                if (linkNode.getAttribute("title") != null && linkNode.getAttribute("title").contentEquals("GCMD Metadata")) {
-                  String gcmdHrefValue = linkNode.getAttributes().getNamedItem("href").getNodeValue();
-                  datasetGCMDList.add(gcmdHrefValue);
-                  LOG.info("Added new Dataset record to list: {}", gcmdHrefValue);
-                }
-              }
-            }
+      reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+      // depth 1 is the feed, 2 its children and 3 the children of an entry
+      int depth = 0;
+      boolean inEntry = false;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.END_ELEMENT) {
+          if (depth == 2) {
+            inEntry = false;
           }
+          depth--;
+          continue;
         }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        depth++;
+        String nodeName = reader.getLocalName();
+        if (depth == 2) {
+          if ("totalResults".equals(nodeName)) {
+            page.setTotalResults(Long.parseLong(reader.getElementText().trim()));
+            depth--;
+          } else if ("startIndex".equals(nodeName)) {
+            page.setStartIndex(Long.parseLong(reader.getElementText().trim()));
+            depth--;
+          } else if ("itemsPerPage".equals(nodeName)) {
+            page.setItemsPerPage(Long.parseLong(reader.getElementText().trim()));
+            depth--;
+          } else {
+            inEntry = "entry".equals(nodeName);
+          }
+        } else if (depth == 3 && inEntry && "link".equals(nodeName)
+            && "GCMD Metadata".equals(reader.getAttributeValue(null, "title"))) {
+          String gcmdHrefValue = reader.getAttributeValue(null, "href");
+          if (gcmdHrefValue != null) {
+            linkCount++;
+            LOG.debug("Added new Dataset record: {}", gcmdHrefValue);
+            gcmdLinkConsumer.accept(gcmdHrefValue);
+          }
+        }
+      }
+    } catch (XMLStreamException | NumberFormatException e) {
+      throw new IOException("Error whilst parsing Atom XML response from Dataset Search after " + linkCount + " link(s)", e);
+    } finally {
+      closeQuietly(reader);
+    }
+    page.setGcmdLinkCount(linkCount);
+    LOG.info("Total number of dataset's retrieved: {}", linkCount);
+    return page;
+  }
+
+  private static XMLInputFactory createXMLInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    // the feed is never expected to carry a DTD, never resolve one
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
+  private static void closeQuietly(XMLStreamReader reader) {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        LOG.debug("Error closing Atom XML reader.", e);
       }
-    } catch (Exception e) {
-      LOG.error("Error whilst parsing Atom XML response from Dataset Search: ", e);
     }
-    LOG.info("Total number of dataset's retrieved: {}", datasetGCMDList.size());
-    return datasetGCMDList;
   }
 
   /**
    * Method accepts a list of URLs which point to individual GCMD manifestations
    * of PO.DAAC Datasets. These URLs are fetched and the XML results are mapped
-   * individually into a PO.DAAC Datasets Ontology.
+   * individually into a PO.DAAC Datasets Ontology. Records are retrieved on a
+   * worker pool sized by <code>eskg.harvest.concurrency</code>, with the
+   * number of requests actually in flight governed by an
+   * {@link AdaptiveConcurrencyLimiter}. The returned
+   * list preserves the order of the input and a record which fails to be
+   * retrieved is logged and omitted without aborting the others. Should the
+   * retrieval be interrupted no partial list is returned.
    * 
    * @param gcmdDatasetList
    *          an {@link java.util.List<String>} of URLs which represent GCMD
@@ -184,64 +840,403 @@ public class PODAACWebServiceClient {
    *          http://podaac
    *          .jpl.nasa.gov/ws/metadata/dataset&ampdatasetId=PODAAC-
    *          PATHF-5DD50&ampformat=gcmd
-   * @return
+   * @return the records retrieved
+   * @throws InterruptedIOException
+   *           if interrupted before every record has been retrieved
    */
-  private List<DIF> retrieveGCMDRecords(List<String> gcmdDatasetList) {
+  List<DIF> retrieveGCMDRecords(List<String> gcmdDatasetList) throws InterruptedIOException {
+    int concurrency = getInt(HARVEST_CONCURRENCY, DEFAULT_HARVEST_CONCURRENCY);
     List<DIF> gcmdXMLPOJORecords = new ArrayList<>();
-    for (int i = 0; i < gcmdDatasetList.size(); i++) {
+    if (concurrency <= 1) {
+      for (int i = 0; i < gcmdDatasetList.size(); i++) {
+        try {
+          gcmdXMLPOJORecords.add(retrieveGCMDRecord(gcmdDatasetList.get(i)));
+        } catch (IOException e) {
+          if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted whilst retrieving GCMD records.");
+          }
+          LOG.error("Error executing PO.DAAC query for GCMD record: {} {}", gcmdDatasetList.get(i), e);
+        }
+      }
+      return gcmdXMLPOJORecords;
+    }
+
+    LOG.info("Retrieving {} GCMD records with concurrency {}", gcmdDatasetList.size(), concurrency);
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      // submit every record up front, then collect in submission order such
+      // that the resulting list mirrors the order of gcmdDatasetList
+      List<Future<DIF>> futures = new ArrayList<>(gcmdDatasetList.size());
+      for (String gcmdDataset : gcmdDatasetList) {
+        futures.add(executor.submit(() -> retrieveGCMDRecord(gcmdDataset)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          gcmdXMLPOJORecords.add(futures.get(i).get());
+        } catch (ExecutionException e) {
+          LOG.error("Error executing PO.DAAC query for GCMD record: {} {}", gcmdDatasetList.get(i), e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst retrieving GCMD records.");
+    } finally {
+      executor.shutdownNow();
+    }
+    LOG.info("HTTP connection pool after GCMD retrieval: {}, final concurrency limit {}, {} bytes received for {} bytes decoded",
+        httpClient.getPoolStats(), concurrencyLimiter.getLimit(), httpClient.getWireBytes(), httpClient.getDecodedBytes());
+    LOG.info("{} request(s) retried, {} hedged of which {} won", retriedRequests.sum(), hedgedRequests.sum(), hedgesWon.sum());
+    if (responseCache != null) {
+      LOG.info("HTTP cache after GCMD retrieval: {}", responseCache);
+    }
+    return gcmdXMLPOJORecords;
+  }
+
+  static DIF parseGCMDXML(InputStream gcmdXmlInputStream) throws IOException {
+    return parseGCMDXML(MapperFactory.create(MapperID.PODAAC_GCMD), gcmdXmlInputStream);
+  }
+
+  private static DIF parseGCMDXML(ObjectMapper objectMapper, InputStream gcmdXmlInputStream) throws IOException {
+    Object dif = objectMapper.map(MapperID.PODAAC_GCMD.name(), gcmdXmlInputStream);
+    if (!(dif instanceof DIF)) {
+      throw new IOException("Unable to read GCMD record from response.");
+    }
+    return (DIF) dif;
+  }
+
+  /**
+   * Retrieves a single GCMD record. Each dataset is only requested once per
+   * harvest as {@link #searchDatasets(Consumer)} hands on each dataset once.
+   */
+  DIF retrieveGCMDRecord(String gcmdDataset) throws IOException {
+    DIF dif = fetchAndParseGCMDRecord(gcmdDataset);
+    retrievedRecords.increment();
+    return dif;
+  }
+
+  private DIF fetchAndParseGCMDRecord(String gcmdDataset) throws IOException {
+    if (journal == null) {
+      return executePODAACQuery(gcmdDataset, body -> parseGCMDRecord(gcmdDataset, body), true);
+    }
+    if (journal.isFetched(gcmdDataset)) {
+      DIF dif = parseSpooledGCMDRecord(gcmdDataset);
+      if (dif != null) {
+        return dif;
+      }
+    }
+    return executePODAACQuery(gcmdDataset, body -> {
+      try (HarvestJournal.Spool spool = journal.spool(gcmdDataset, body)) {
+        DIF dif = parseGCMDRecord(gcmdDataset, spool);
+        spool.commit();
+        journal.parsed(gcmdDataset, dif.getEntryID());
+        return dif;
+      }
+    }, true);
+  }
+
+  /**
+   * Fetches a GCMD record for the pipeline, from the journal's spool when an
+   * interrupted harvest has already fetched it.
+   */
+  private Map.Entry<String, InputStream> fetchGCMDRecord(String gcmdDataset) throws IOException {
+    InputStream body = null;
+    if (journal != null && journal.isFetched(gcmdDataset)) {
+      body = journal.open(gcmdDataset);
+    } else if (journal != null) {
+      body = executePODAACQuery(gcmdDataset, response -> {
+        try (HarvestJournal.Spool spool = journal.spool(gcmdDataset, response)) {
+          byte[] bytes = IOUtils.toByteArray(spool);
+          spool.commit();
+          return new ByteArrayInputStream(bytes);
+        }
+      }, true);
+    } else {
+      body = executePODAACQuery(gcmdDataset);
+    }
+    return new AbstractMap.SimpleImmutableEntry<>(gcmdDataset, body);
+  }
+
+  private DIF parseFetchedGCMDRecord(Map.Entry<String, InputStream> fetched) throws IOException {
+    try (InputStream body = fetched.getValue()) {
+      DIF dif = parseGCMDRecord(fetched.getKey(), body);
+      if (journal != null) {
+        journal.parsed(fetched.getKey(), dif.getEntryID());
+      }
+      return dif;
+    } catch (IOException e) {
+      if (journal != null) {
+        // a spooled record which cannot be parsed is fetched afresh next time
+        journal.discard(fetched.getKey());
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return the record parsed from the journal's spool, or null if the spooled
+   *         body is unusable and the record must be fetched again
+   */
+  private DIF parseSpooledGCMDRecord(String gcmdDataset) {
+    try (InputStream body = journal.open(gcmdDataset)) {
+      return parseGCMDRecord(gcmdDataset, body);
+    } catch (IOException e) {
+      LOG.warn("Discarding unreadable spooled record for {}", gcmdDataset, e);
+      journal.discard(gcmdDataset);
+      return null;
+    }
+  }
+
+  /**
+   * @return the digest of the GCMD response body the record with the given
+   *         Entry_ID was parsed from, or null if it is unknown
+   */
+  String getContentDigest(String entryId) {
+    return entryId != null ? contentDigests.get(entryId) : null;
+  }
+
+  /**
+   * Sets the mapper each GCMD response body is parsed with, such as the one a
+   * {@link HarvestScheduler} creates for
+   * {@link PODAACHarvestSource#getMapperId()}.
+   */
+  void setRecordMapper(ObjectMapper recordMapper) {
+    this.recordMapper = recordMapper;
+  }
+
+  /**
+   * @return the datasetId the record with the given Entry_ID was retrieved
+   *         for, or null if it is unknown
+   */
+  String getDatasetKey(String entryId) {
+    return entryId != null ? datasetKeys.get(entryId) : null;
+  }
+
+  /**
+   * Called once the model has been written, clears the journal.
+   */
+  void completeHarvest() {
+    if (journal != null) {
       try {
-        gcmdXMLPOJORecords.add((DIF) parseGCMDXML(executePODAACQuery(gcmdDatasetList.get(i))));
+        journal.complete();
       } catch (IOException e) {
-        LOG.error("Error executing PO.DAAC query for GCMD record: {} {}", gcmdDatasetList.get(i), e);
+        LOG.error("Unable to clear harvest journal, the next harvest will resume from it.", e);
       }
     }
-    return gcmdXMLPOJORecords;
+    if (retainable != null) {
+      LOG.info("{} unchanged GCMD record(s) were not parsed", unchangedRecords.sum());
+    }
+  }
+
+  /**
+   * Sets the lookup applied to a record's datasetId and body digest before it
+   * is parsed; a record for which it finds an Entry_ID is not parsed and is
+   * returned as a retained record instead, see {@link #isRetained(DIF)}. A
+   * null lookup, as set for a harvest which is not incremental, or
+   * <code>eskg.harvest.skipUnchanged</code> being disabled, streams every body
+   * to the parser.
+   */
+  void setRetainable(BiFunction<String, String, String> retainable) {
+    boolean skipUnchanged = Boolean.parseBoolean(props.getProperty(SKIP_UNCHANGED, "false").trim());
+    this.retainable = skipUnchanged ? retainable : null;
+  }
+
+  /**
+   * @return true if the record was not parsed because its GCMD body is
+   *         unchanged, such that the mapper should retain its previous
+   *         individual; only the Entry_ID of such a record is set
+   */
+  static boolean isRetained(DIF dif) {
+    return dif instanceof RetainedDIF;
+  }
 
+  /**
+   * Parses a GCMD record, recording a digest of the complete body against its
+   * Entry_ID and datasetId. When the body is byte-identical to the one the
+   * mapper last built the dataset's individual from, the body is not parsed
+   * and a {@link RetainedDIF} is returned.
+   */
+  private DIF parseGCMDRecord(String gcmdDataset, InputStream body) throws IOException {
+    String key = datasetKey(gcmdDataset);
+    BiFunction<String, String, String> retain = retainable;
+    InputStream content = body;
+    if (retain != null) {
+      // the body must be digested whole before it can be parsed
+      byte[] bytes = IOUtils.toByteArray(body);
+      String digest = Digests.toHex(Digests.sha1().digest(bytes));
+      String entryId = retain.apply(key, digest);
+      if (entryId != null) {
+        contentDigests.put(entryId, digest);
+        datasetKeys.put(entryId, key);
+        unchangedRecords.increment();
+        return new RetainedDIF(entryId);
+      }
+      content = new ByteArrayInputStream(bytes);
+    }
+    DigestInputStream digestStream = new DigestInputStream(content, Digests.sha1());
+    // the XML parser closes its input, keep the body open so it can be drained
+    DIF dif = parseGCMDXML(recordMapper, new CloseShieldInputStream(digestStream));
+    // include anything the parser left unread after the root element
+    IOUtils.copy(digestStream, NullOutputStream.NULL_OUTPUT_STREAM);
+    if (dif.getEntryID() != null) {
+      String digest = Digests.toHex(digestStream.getMessageDigest().digest());
+      contentDigests.put(dif.getEntryID(), digest);
+      datasetKeys.put(dif.getEntryID(), key);
+    }
+    return dif;
   }
 
-  private DIF parseGCMDXML(ByteArrayInputStream gcmdXmlByteArrayInputStream) {
-    PODAACWebServiceObjectMapper objectMapper = new PODAACWebServiceObjectMapper();
-    return (DIF) objectMapper.map(MapperID.PODAAC_GCMD.name(), gcmdXmlByteArrayInputStream);
+  /** a record whose unchanged body was not parsed, carrying its Entry_ID alone */
+  private static final class RetainedDIF extends DIF {
+
+    RetainedDIF(String entryId) {
+      setEntryID(entryId);
+    }
+
+  }
+
+  private int getInt(String key, int defaultValue) {
+    return Integer.parseInt(props.getProperty(key, Integer.toString(defaultValue)).trim());
   }
 
   /**
-   * Creates a new {@link Properties}. It adds the default gora configuration
-   * resources. This properties object can be modified and used to instantiate
-   * store instances. It is recommended to use a properties object for a single
-   * store, because the properties object is passed on to store initialization
-   * methods that are able to store the properties as a field.
+   * Loads the default <code>eskg.properties</code> from the classpath.
    * 
-   * @return The new properties object.
+   * @return the properties, empty if <code>eskg.properties</code> is not found
    */
-  private void createProps() {
-    try {
-      Properties properties = new Properties();
-      InputStream stream = PODAACWebServiceClient.class.getClassLoader().getResourceAsStream(ESKG_DEFAULT_PROPERTIES_FILE);
+  static Properties loadProperties() {
+    Properties properties = new Properties();
+    try (InputStream stream = PODAACWebServiceClient.class.getClassLoader().getResourceAsStream(ESKG_DEFAULT_PROPERTIES_FILE)) {
       if (stream != null) {
-        try {
-          properties.load(stream);
-          props = properties;
-        } finally {
-          stream.close();
-        }
+        properties.load(stream);
       } else {
         LOG.warn(ESKG_DEFAULT_PROPERTIES_FILE + " not found, properties will be empty.");
       }
-    } catch (Exception e) {
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    return properties;
   }
 
   /**
+   * @return every <code>eskg.*</code> system property, such that properties
+   *         may be overridden on the command line
+   */
+  static Properties systemOverrides() {
+    Properties overrides = new Properties();
+    for (String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith("eskg.")) {
+        overrides.setProperty(name, System.getProperty(name));
+      }
+    }
+    return overrides;
+  }
+
+  /**
+   * @return the Dataset Search query for the first page, made against
+   *         <code>eskg.podaac.baseUrl</code> and restricted by any
+   *         {@link DatasetSearchFilter}
+   */
+  static String datasetSearchUrl(Properties props) {
+    String baseUrl = props.getProperty(PODAAC_BASE_URL, DEFAULT_PODAAC_BASE_URL).trim();
+    return (baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl) + DATASET_SEARCH_PATH
+        + DatasetSearchFilter.fromProperties(props).toQueryParameters();
+  }
+
+  /**
+   * @return true if the harvest is restricted by a {@link DatasetSearchFilter},
+   *         such that records not retrieved must be kept in the graph
+   */
+  boolean isPartial() {
+    return !searchFilter.isEmpty();
+  }
+
+  private void createClients() {
+    searchFilter = DatasetSearchFilter.fromProperties(props);
+    partition = HarvestPartition.fromProperties(props);
+    datasetSearch = datasetSearchUrl(props);
+    if (isPartial()) {
+      LOG.info("Harvesting datasets matching {}, unmatched records are kept.", searchFilter);
+    }
+    httpClient = new PooledHttpClient(props);
+    concurrencyLimiter = AdaptiveConcurrencyLimiter.fromProperties(props);
+    METRICS.gauge("podaac.concurrency.limit", concurrencyLimiter::getLimit);
+    try {
+      responseCache = HttpResponseCache.fromProperties(props);
+    } catch (IOException e) {
+      LOG.warn("Unable to open HTTP cache, responses will not be cached.", e);
+    }
+    try {
+      archive = HarvestArchive.fromProperties(props);
+      journal = HarvestJournal.fromProperties(props);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Releases the pooled HTTP connections used by this client and completes
+   * any harvest archive.
+   */
+  @Override
+  public void close() throws IOException {
+    if (hedgeExecutor != null) {
+      hedgeExecutor.shutdownNow();
+    }
+    try {
+      if (archive != null) {
+        archive.close();
+      }
+      if (journal != null) {
+        journal.close();
+      }
+    } finally {
+      if (httpClient != null) {
+        httpClient.close();
+      }
+    }
+  }
+
+  /**
+   * Any <code>eskg.*</code> system property overrides the corresponding
+   * property in <code>eskg.properties</code>, for example
+   * <code>-Deskg.podaac.baseUrl=http://localhost:8080</code>. Harvest metrics
+   * are reported as configured by <code>eskg.metrics.*</code>. The harvest may
+   * be restricted to the datasets matching a {@link DatasetSearchFilter} with
+   * the options
+   * <ul>
+   * <li><b>bbox</b>; Bounding box as west,south,east,north.</li>
+   * <li><b>startTime</b> and <b>endTime</b>; Period datasets must overlap.</li>
+   * <li><b>shortName</b>; Short name of the dataset.</li>
+   * <li><b>processingLevel</b>; Processing level of the datasets.</li>
+   * </ul>
+   * in which case the matching records are merged into the existing graph.
+   * 
    * @param args
-   *          no args required
+   *          includes options as per description
    * @throws IOException
    *           if there is an issue querying the PO.DAAC Webservice
    */
   public static void main(String[] args) throws IOException {
-    PODAACWebServiceClient client = new PODAACWebServiceClient();
-    client.createProps();
-    client.fetchDatasets();
+    Options opts = DatasetSearchFilter.addOptions(new Options());
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(opts, args);
+    } catch (ParseException e) {
+      LOG.error("Failed to parse command line {}", e.getMessage());
+      new HelpFormatter().printHelp(PODAACWebServiceClient.class.getSimpleName(), opts);
+      System.exit(-1);
+    }
+
+    Properties overrides = systemOverrides();
+    DatasetSearchFilter.applyOptions(cmd, overrides);
+    try (PODAACWebServiceClient client = new PODAACWebServiceClient(overrides)) {
+      MetricsReporter reporter = MetricsReporter.fromProperties(client.props);
+      try {
+        client.fetchDatasets();
+      } finally {
+        reporter.close();
+      }
+    }
   }
 
 }
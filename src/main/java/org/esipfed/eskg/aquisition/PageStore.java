@@ -0,0 +1,454 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.esipfed.eskg.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content addressed store of crawled pages, such that pages can be read
+ * back sequentially for extraction instead of being crawled again. Each
+ * distinct page content is stored once, keyed by its SHA-1, however many URLs
+ * serve it. The store is a directory of
+ * <ul>
+ * <li><b>segment-NNNNN.gz</b>; segments of up to
+ * {@link #DEFAULT_SEGMENT_SIZE} bytes by default, each a series of gzip
+ * members holding one page as its hash, content type, length and
+ * content.</li>
+ * <li><b>index.tsv</b>; an append only index with a line of URL, hash, fetch
+ * time, segment and offset for every page stored, in which the last line for
+ * a URL wins.</li>
+ * </ul>
+ * A page is appended to its segment before it is indexed, so an interrupted
+ * crawl leaves at worst an unindexed page. The store is safe to write from
+ * many crawler threads, and pages put after it has been closed are ignored.
+ */
+public class PageStore implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PageStore.class);
+
+  /** the size at which a new segment is started */
+  public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+  private static final String INDEX_FILE = "index.tsv";
+
+  private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+
+  private static final LongAdder STORED = METRICS.counter("pagestore.pages.stored");
+
+  private static final LongAdder DUPLICATES = METRICS.counter("pagestore.pages.duplicate");
+
+  private static final LongAdder BYTES = METRICS.counter("pagestore.bytes");
+
+  private final File directory;
+
+  private final long segmentSize;
+
+  /** hash to the location of every distinct page */
+  private final Map<String, Location> locations = new ConcurrentHashMap<>();
+
+  /** URL to the hash and fetch time of the page last stored for it */
+  private final Map<String, Entry> urls = new ConcurrentHashMap<>();
+
+  private final Writer index;
+
+  private int segment;
+
+  private long segmentLength;
+
+  private OutputStream segmentOut;
+
+  /** guarded by this */
+  private boolean closed;
+
+  /**
+   * Opens a store, creating it if it does not exist, with the
+   * {@link #DEFAULT_SEGMENT_SIZE}.
+   *
+   * @param directory
+   *          the directory of the store
+   * @throws IOException
+   *           if the store cannot be created or its index read
+   */
+  public PageStore(File directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens a store, creating it if it does not exist.
+   *
+   * @param directory
+   *          the directory of the store
+   * @param segmentSize
+   *          the size at which a new segment is started
+   * @throws IOException
+   *           if the store cannot be created or its index read
+   */
+  public PageStore(File directory, long segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create page store " + directory);
+    }
+    loadIndex();
+    while (segmentFile(segment + 1).exists()) {
+      segment++;
+    }
+    openSegment();
+    index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE), true), StandardCharsets.UTF_8));
+    LOG.info("Opened page store {} with {} distinct pages for {} URLs.", directory, locations.size(), urls.size());
+  }
+
+  /**
+   * Reads the index, ignoring lines for pages beyond the end of their
+   * segment, which was not fully written.
+   */
+  private void loadIndex() throws IOException {
+    File file = new File(directory, INDEX_FILE);
+    if (!file.exists()) {
+      return;
+    }
+    Map<Integer, Long> lengths = new HashMap<>();
+    int ignored = 0;
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if (fields.length != 5) {
+          ignored++;
+          continue;
+        }
+        Location location = new Location(Integer.parseInt(fields[3]), Long.parseLong(fields[4]));
+        long length = lengths.computeIfAbsent(location.segment, s -> segmentFile(s).length());
+        if (location.offset >= length) {
+          ignored++;
+          continue;
+        }
+        locations.putIfAbsent(fields[1], location);
+        urls.put(fields[0], new Entry(fields[1], Instant.parse(fields[2])));
+      }
+    }
+    if (ignored > 0) {
+      LOG.warn("Ignored {} incomplete line(s) of page store index {}.", ignored, file);
+    }
+  }
+
+  private File segmentFile(int number) {
+    return new File(directory, String.format(Locale.ROOT, "segment-%05d.gz", number));
+  }
+
+  private void openSegment() throws IOException {
+    File file = segmentFile(segment);
+    segmentLength = file.length();
+    segmentOut = new FileOutputStream(file, true);
+  }
+
+  /**
+   * Stores a page, writing its content only if no identical content has been
+   * stored before. May be called from any thread.
+   *
+   * @param url
+   *          the URL the page was fetched from
+   * @param contentType
+   *          the content type of the page, or null if unknown
+   * @param content
+   *          the content of the page
+   * @param fetchTime
+   *          when the page was fetched
+   * @return true if the content was stored, false if it was already present or
+   *         the store has been closed
+   * @throws IOException
+   *           if the page cannot be written
+   */
+  public boolean put(String url, String contentType, byte[] content, Instant fetchTime) throws IOException {
+    String hash = Digests.toHex(Digests.sha1().digest(content));
+    // compress outside the lock, unless the content is known to be stored
+    byte[] record = locations.containsKey(hash) ? null : compress(hash, contentType, content);
+    boolean stored = false;
+    synchronized (this) {
+      if (closed) {
+        LOG.debug("Page store {} is closed, ignoring {}", directory, url);
+        return false;
+      }
+      Location location = locations.get(hash);
+      if (location == null) {
+        if (record == null) {
+          record = compress(hash, contentType, content);
+        }
+        if (segmentLength > 0 && segmentLength + record.length > segmentSize) {
+          segmentOut.close();
+          segment++;
+          openSegment();
+        }
+        location = new Location(segment, segmentLength);
+        segmentOut.write(record);
+        segmentLength += record.length;
+        locations.put(hash, location);
+        BYTES.add(record.length);
+        stored = true;
+      }
+      index.write(url + "\t" + hash + "\t" + fetchTime + "\t" + location.segment + "\t" + location.offset + "\n");
+      urls.put(url, new Entry(hash, fetchTime));
+    }
+    (stored ? STORED : DUPLICATES).increment();
+    return stored;
+  }
+
+  private static byte[] compress(String hash, String contentType, byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+      out.writeUTF(hash);
+      out.writeUTF(contentType != null ? contentType : "");
+      out.writeInt(content.length);
+      out.write(content);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param url
+   *          a URL
+   * @return the hash of the content last stored for the URL, or null if none
+   *         has been
+   */
+  public String getHash(String url) {
+    Entry entry = urls.get(url);
+    return entry != null ? entry.hash : null;
+  }
+
+  /**
+   * @param url
+   *          a URL
+   * @return when the content last stored for the URL was fetched, or null if
+   *         none has been
+   */
+  public Instant getFetchTime(String url) {
+    Entry entry = urls.get(url);
+    return entry != null ? entry.fetchTime : null;
+  }
+
+  /**
+   * @return true if content with the given hash has been stored
+   */
+  public boolean contains(String hash) {
+    return locations.containsKey(hash);
+  }
+
+  /**
+   * Reads the page with the given content hash.
+   *
+   * @param hash
+   *          the SHA-1 of the content
+   * @return the page, or null if no such content has been stored
+   * @throws IOException
+   *           if the page cannot be read
+   */
+  public StoredPage read(String hash) throws IOException {
+    Location location = locations.get(hash);
+    if (location == null) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(segmentFile(location.segment).toPath(), StandardOpenOption.READ)) {
+      return readAt(channel, location.offset);
+    }
+  }
+
+  /**
+   * Reads every distinct page in the order it was stored, such that each
+   * segment is read sequentially and each content is visited once however
+   * many URLs served it.
+   *
+   * @param consumer
+   *          receives each page
+   * @throws IOException
+   *           if a page cannot be read
+   */
+  public void forEach(Consumer<StoredPage> consumer) throws IOException {
+    List<Location> ordered = new ArrayList<>(locations.values());
+    ordered.sort(Comparator.comparingInt((Location l) -> l.segment).thenComparingLong(l -> l.offset));
+    FileChannel channel = null;
+    int open = -1;
+    try {
+      for (Location location : ordered) {
+        if (location.segment != open) {
+          if (channel != null) {
+            channel.close();
+          }
+          channel = FileChannel.open(segmentFile(location.segment).toPath(), StandardOpenOption.READ);
+          open = location.segment;
+        }
+        consumer.accept(readAt(channel, location.offset));
+      }
+    } finally {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the gzip member at an offset of a segment. The channel is not closed.
+   */
+  private static StoredPage readAt(FileChannel channel, long offset) throws IOException {
+    channel.position(offset);
+    try (DataInputStream in = new DataInputStream(
+        new GZIPInputStream(new BufferedInputStream(new CloseShieldInputStream(Channels.newInputStream(channel)))))) {
+      String hash = in.readUTF();
+      String contentType = in.readUTF();
+      byte[] content = new byte[in.readInt()];
+      in.readFully(content);
+      return new StoredPage(hash, contentType.isEmpty() ? null : contentType, content);
+    }
+  }
+
+  /**
+   * @return the number of distinct pages stored
+   */
+  public int getPageCount() {
+    return locations.size();
+  }
+
+  /**
+   * @return the number of URLs indexed
+   */
+  public int getUrlCount() {
+    return urls.size();
+  }
+
+  /**
+   * Writes the buffered index to disk.
+   *
+   * @throws IOException
+   *           if the index cannot be written
+   */
+  public synchronized void flush() throws IOException {
+    if (!closed) {
+      index.flush();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      index.close();
+    } finally {
+      segmentOut.close();
+    }
+    LOG.info("Closed page store {} with {} distinct pages for {} URLs.", directory, locations.size(), urls.size());
+  }
+
+  /** a page read from the store */
+  public static final class StoredPage {
+
+    private final String hash;
+
+    private final String contentType;
+
+    private final byte[] content;
+
+    private StoredPage(String hash, String contentType, byte[] content) {
+      this.hash = hash;
+      this.contentType = contentType;
+      this.content = content;
+    }
+
+    /**
+     * @return the SHA-1 of the content
+     */
+    public String getHash() {
+      return hash;
+    }
+
+    /**
+     * @return the content type the page was served with, or null if unknown
+     */
+    public String getContentType() {
+      return contentType;
+    }
+
+    /**
+     * @return the content of the page
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+  }
+
+  /** where a distinct page is stored */
+  private static final class Location {
+
+    private final int segment;
+
+    private final long offset;
+
+    private Location(int segment, long offset) {
+      this.segment = segment;
+      this.offset = offset;
+    }
+
+  }
+
+  /** the page last stored for a URL */
+  private static final class Entry {
+
+    private final String hash;
+
+    private final Instant fetchTime;
+
+    private Entry(String hash, Instant fetchTime) {
+      this.hash = hash;
+      this.fetchTime = fetchTime;
+    }
+
+  }
+
+}
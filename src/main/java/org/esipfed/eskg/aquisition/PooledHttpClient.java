@@ -0,0 +1,368 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.esipfed.eskg.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single, pooled, keep-alive HTTP client shared by every request made
+ * during a harvest. Connections are leased from a
+ * {@link PoolingHttpClientConnectionManager} with per-route limits, and a
+ * single {@link javax.net.ssl.SSLContext} is shared by every connection such
+ * that TLS sessions are resumed rather than renegotiated. The client is
+ * configured with the following properties
+ * <ul>
+ * <li><b>eskg.http.maxTotal</b>; maximum number of pooled connections.</li>
+ * <li><b>eskg.http.maxPerRoute</b>; maximum number of pooled connections per
+ * host.</li>
+ * <li><b>eskg.http.connectTimeout</b>; TCP connect timeout in
+ * milliseconds.</li>
+ * <li><b>eskg.http.socketTimeout</b>; read timeout in milliseconds.</li>
+ * <li><b>eskg.http.connectionRequestTimeout</b>; maximum wait in milliseconds
+ * for a connection to become available in the pool.</li>
+ * <li><b>eskg.http.totalTimeout</b>; maximum duration in milliseconds of a
+ * request, including reading the response, before it is aborted.</li>
+ * <li><b>eskg.http.keepAlive</b>; how long in milliseconds an idle connection
+ * is kept alive if the server does not say otherwise.</li>
+ * <li><b>eskg.http.compression</b>; whether gzip and deflate encoded responses
+ * are requested.</li>
+ * </ul>
+ * Compressed responses are decoded as they are read, such that handlers
+ * receive the decoded body without it ever being inflated into a buffer. The
+ * number of bytes received on the wire and the number decoded are counted
+ * across every response.
+ */
+public class PooledHttpClient implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PooledHttpClient.class);
+
+  private static final String USER_AGENT = "ESKG PO.DAAC WebService Client";
+
+  private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  private static final LongAdder WIRE_BYTES = MetricsRegistry.getDefault().counter("http.bytes.wire");
+
+  private static final LongAdder DECODED_BYTES = MetricsRegistry.getDefault().counter("http.bytes.decoded");
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+
+  private final CloseableHttpClient client;
+
+  private final ScheduledExecutorService timeoutScheduler;
+
+  private final long totalTimeout;
+
+  private final AtomicLong wireBytes = new AtomicLong();
+
+  private final AtomicLong decodedBytes = new AtomicLong();
+
+  /**
+   * Creates a pooled client configured from the supplied properties.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   */
+  public PooledHttpClient(Properties props) {
+    Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", new SSLConnectionSocketFactory(SSLContexts.createSystemDefault(), SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+        .build();
+    connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+    connectionManager.setMaxTotal(getInt(props, "eskg.http.maxTotal", 64));
+    connectionManager.setDefaultMaxPerRoute(getInt(props, "eskg.http.maxPerRoute", 16));
+    connectionManager.setValidateAfterInactivity(2000);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(getInt(props, "eskg.http.connectTimeout", 10000))
+        .setSocketTimeout(getInt(props, "eskg.http.socketTimeout", 30000))
+        .setConnectionRequestTimeout(getInt(props, "eskg.http.connectionRequestTimeout", 30000))
+        .build();
+
+    long keepAlive = getInt(props, "eskg.http.keepAlive", 30000);
+    totalTimeout = getInt(props, "eskg.http.totalTimeout", 120000);
+    boolean compression = Boolean.parseBoolean(props.getProperty("eskg.http.compression", "true").trim());
+
+    HttpClientBuilder builder = HttpClients.custom()
+        // decoding is done by the interceptor below such that bytes can be
+        // counted either side of the decoder
+        .disableContentCompression()
+        .addInterceptorLast(this::decodeResponse);
+    if (compression) {
+      builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+        if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+          request.addHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+        }
+      });
+    }
+    client = builder
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .setKeepAliveStrategy(keepAliveStrategy(keepAlive))
+        // connections are not bound to a user principal so that every
+        // TLS connection remains eligible for reuse by any request
+        .disableConnectionState()
+        .setUserAgent(USER_AGENT)
+        .build();
+
+    timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "eskg-http-timeout");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Executes a request and hands the response to the supplied handler. The
+   * response entity is fully consumed and the connection returned to the pool
+   * once the handler completes. If the request, including the handler, takes
+   * longer than <code>eskg.http.totalTimeout</code> it is aborted.
+   *
+   * @param request
+   *          the request to execute
+   * @param handler
+   *          the {@link ResponseHandler} which processes the response
+   * @return the value returned by the handler
+   * @throws IOException
+   *           if the request fails or is aborted
+   */
+  public <T> T execute(HttpRequestBase request, ResponseHandler<? extends T> handler) throws IOException {
+    return execute(request, handler, totalTimeout);
+  }
+
+  /**
+   * Executes a request as {@link #execute(HttpRequestBase, ResponseHandler)}
+   * does, aborting it after the lesser of <code>eskg.http.totalTimeout</code>
+   * and the given timeout.
+   *
+   * @param request
+   *          the request to execute
+   * @param handler
+   *          the {@link ResponseHandler} which processes the response
+   * @param timeoutMillis
+   *          maximum duration of the request in milliseconds
+   * @return the value returned by the handler
+   * @throws IOException
+   *           if the request fails or is aborted
+   */
+  public <T> T execute(HttpRequestBase request, ResponseHandler<? extends T> handler, long timeoutMillis) throws IOException {
+    long timeout = Math.max(0, Math.min(totalTimeout, timeoutMillis));
+    ScheduledFuture<?> abort = timeoutScheduler.schedule(request::abort, timeout, TimeUnit.MILLISECONDS);
+    try {
+      return client.execute(request, handler);
+    } finally {
+      abort.cancel(false);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Connection pool: {}", getPoolStats());
+      }
+    }
+  }
+
+  /**
+   * @return the current totals of leased, pending, available and maximum
+   *         connections across all routes
+   */
+  public PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * @return the number of response body bytes received on the wire, before
+   *         any decoding
+   */
+  public long getWireBytes() {
+    return wireBytes.get();
+  }
+
+  /**
+   * @return the number of response body bytes handed to handlers, after any
+   *         decoding
+   */
+  public long getDecodedBytes() {
+    return decodedBytes.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    LOG.info("Closing HTTP connection pool: {}, {} bytes received for {} bytes decoded", getPoolStats(),
+        getWireBytes(), getDecodedBytes());
+    timeoutScheduler.shutdownNow();
+    client.close();
+  }
+
+  /**
+   * Replaces the entity of a response with one whose content is counted on the
+   * wire, decoded according to its <code>Content-Encoding</code>, and counted
+   * again once decoded.
+   */
+  private void decodeResponse(HttpResponse response, HttpContext context) throws HttpException {
+    HttpEntity entity = response.getEntity();
+    if (entity == null || entity.getContentLength() == 0) {
+      return;
+    }
+    String encoding = null;
+    Header contentEncoding = entity.getContentEncoding();
+    if (contentEncoding != null) {
+      encoding = contentEncoding.getValue().trim().toLowerCase(Locale.ROOT);
+      if (!"gzip".equals(encoding) && !"x-gzip".equals(encoding) && !"deflate".equals(encoding)
+          && !"identity".equals(encoding)) {
+        throw new HttpException("Unsupported Content-Encoding: " + contentEncoding.getValue());
+      }
+      response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+      response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+      response.removeHeaders("Content-MD5");
+    }
+    response.setEntity(new DecodingEntity(entity, encoding));
+  }
+
+  /**
+   * An entity whose content is decoded as it is read.
+   */
+  private class DecodingEntity extends HttpEntityWrapper {
+
+    private final String encoding;
+
+    private InputStream content;
+
+    DecodingEntity(HttpEntity wrapped, String encoding) {
+      super(wrapped);
+      this.encoding = encoding;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      if (content == null || !wrappedEntity.isStreaming()) {
+        content = counting(decode(counting(wrappedEntity.getContent(), wireBytes, WIRE_BYTES), encoding), decodedBytes, DECODED_BYTES);
+      }
+      return content;
+    }
+
+    @Override
+    public long getContentLength() {
+      return encoding == null || "identity".equals(encoding) ? wrappedEntity.getContentLength() : -1;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+      return null;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+      try (InputStream in = getContent()) {
+        IOUtils.copy(in, outstream);
+      }
+    }
+  }
+
+  /**
+   * Wraps a response body in the decoder for its content coding.
+   *
+   * @param in
+   *          the body as received
+   * @param encoding
+   *          the lower case <code>Content-Encoding</code>, or null
+   * @return the decoded body
+   * @throws IOException
+   *           if the body cannot be decoded
+   */
+  static InputStream decode(InputStream in, String encoding) throws IOException {
+    if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+      return new GZIPInputStream(in);
+    } else if ("deflate".equals(encoding)) {
+      return new DeflateInputStream(in);
+    }
+    return in;
+  }
+
+  private static InputStream counting(InputStream in, AtomicLong counter, LongAdder total) {
+    return new ProxyInputStream(in) {
+      @Override
+      protected void afterRead(int n) {
+        if (n > 0) {
+          counter.addAndGet(n);
+          total.add(n);
+        }
+      }
+    };
+  }
+
+  static ConnectionKeepAliveStrategy keepAliveStrategy(long defaultKeepAlive) {
+    return (HttpResponse response, HttpContext context) -> {
+      // honor the server's Keep-Alive timeout if one is given
+      HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+      while (it.hasNext()) {
+        HeaderElement he = it.nextElement();
+        if ("timeout".equalsIgnoreCase(he.getName()) && he.getValue() != null) {
+          try {
+            return Long.parseLong(he.getValue()) * 1000;
+          } catch (NumberFormatException e) {
+            LOG.debug("Ignoring malformed Keep-Alive timeout: {}", he.getValue());
+          }
+        }
+      }
+      return defaultKeepAlive;
+    };
+  }
+
+  private static int getInt(Properties props, String key, int defaultValue) {
+    return Integer.parseInt(props.getProperty(key, Integer.toString(defaultValue)).trim());
+  }
+
+}
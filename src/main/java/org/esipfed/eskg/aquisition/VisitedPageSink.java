@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.uci.ics.crawler4j.crawler.Page;
+
+/**
+ * Records the pages visited by a crawl, each URL once, however many crawler
+ * threads report it. Every newly visited page is appended to a persistent
+ * page log as a tab separated line of fetch time, HTTP status, content length,
+ * depth and URL, such that the pages of a crawl can be listed without holding
+ * them in memory or logging each one. Recording a page costs a set insertion
+ * and a buffered write, independent of the number of pages already visited.
+ * Pages reported after the sink has been closed are ignored.
+ */
+public class VisitedPageSink implements Closeable {
+
+  private final Set<String> visited = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder revisits = new LongAdder();
+
+  private final Writer pageLog;
+
+  private final File file;
+
+  /** guarded by pageLog */
+  private boolean closed;
+
+  /**
+   * Opens the page log, appending to any log left by an earlier crawl.
+   *
+   * @param file
+   *          the page log
+   * @throws IOException
+   *           if the page log cannot be opened
+   */
+  public VisitedPageSink(File file) throws IOException {
+    this.file = file;
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    this.pageLog = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Records a visited page. May be called from any thread.
+   *
+   * @param page
+   *          the page
+   * @return true if the page had not been visited before and the sink is open
+   * @throws IOException
+   *           if the page cannot be written to the page log
+   */
+  public boolean visit(Page page) throws IOException {
+    String url = page.getWebURL().getURL();
+    if (!visited.add(url)) {
+      revisits.increment();
+      return false;
+    }
+    byte[] content = page.getContentData();
+    String line = Instant.now() + "\t" + page.getStatusCode() + "\t" + (content != null ? content.length : 0) + "\t"
+        + page.getWebURL().getDepth() + "\t" + url + "\n";
+    synchronized (pageLog) {
+      if (closed) {
+        return false;
+      }
+      pageLog.write(line);
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of distinct pages visited
+   */
+  public long getVisited() {
+    return visited.size();
+  }
+
+  /**
+   * @return the number of times a page already visited was reported again
+   */
+  public long getRevisits() {
+    return revisits.sum();
+  }
+
+  /**
+   * @return the page log
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Writes any buffered pages to the page log.
+   *
+   * @throws IOException
+   *           if the page log cannot be written
+   */
+  public void flush() throws IOException {
+    synchronized (pageLog) {
+      if (!closed) {
+        pageLog.flush();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (pageLog) {
+      closed = true;
+      pageLog.close();
+    }
+  }
+
+}
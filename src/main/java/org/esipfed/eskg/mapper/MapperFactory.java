@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.mapper;
+
+import org.esipfed.eskg.mapper.ObjectMapper.MapperID;
+
+/**
+ * Creates the {@link ObjectMapper} which maps records of the format named by
+ * a {@link MapperID} to POJO's.
+ */
+public class MapperFactory {
+
+  private MapperFactory() {
+    // static factory
+  }
+
+  /**
+   * @param mapperId
+   *          the record format
+   * @return a new mapper for the format
+   * @throws IllegalArgumentException
+   *           if no mapper exists for the format
+   */
+  public static ObjectMapper create(MapperID mapperId) {
+    switch (mapperId) {
+      case PODAAC_GCMD:
+        return new PODAACWebServiceObjectMapper();
+      default:
+        throw new IllegalArgumentException("No object mapper for " + mapperId);
+    }
+  }
+
+}
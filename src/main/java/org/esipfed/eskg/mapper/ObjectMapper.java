@@ -13,7 +13,7 @@
  */
 package org.esipfed.eskg.mapper;
 
-import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Properties;
 
@@ -31,18 +31,19 @@ public interface ObjectMapper {
   }
 
   /**
-   * Map the {@link java.io.ByteArrayInputStream} to the POJO defined by the
-   * mapperId.
+   * Map the {@link java.io.InputStream} to the POJO defined by the mapperId.
+   * The stream is read as raw bytes such that the character encoding is
+   * detected by the underlying XML parser.
    * 
    * @param mapperId
    *          the {@link org.esipfed.eskg.mapper.ObjectMapper.MapperID}
    * @param inputStream
-   *          a {@link java.io.ByteArrayInputStream} representing the content to
-   *          be mapped to the Ontology Model.
+   *          an {@link java.io.InputStream} representing the content to be
+   *          mapped to the Ontology Model.
    * @return a mapped Object, an example being
    *         {@link org.esipfed.eskg.structures.DIF}
    */
-  public Object map(String mapperId, ByteArrayInputStream inputStream);
+  public Object map(String mapperId, InputStream inputStream);
 
   void map(List<DIF> pojoList, Properties props);
 }
@@ -13,7 +13,8 @@
  */
 package org.esipfed.eskg.mapper;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Properties;
 
@@ -40,7 +41,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Class contains functionality for mapping all {@link ByteArrayInputStream}'s
+ * Class contains functionality for mapping all {@link InputStream}'s
  * generated via {@link org.esipfed.eskg.aquisition.PODAACWebServiceClient} to
  * POJO's. The structre for all POJO's is contained within the
  * <b>org.esipfed.eskg.structures</b> package.
@@ -58,10 +59,10 @@ public class PODAACWebServiceObjectMapper implements ObjectMapper {
 
   /**
    * @see org.esipfed.eskg.mapper.ObjectMapper#map(java.lang.String,
-   *      java.io.ByteArrayInputStream)
+   *      java.io.InputStream)
    */
   @Override
-  public Object map(String mapperId, ByteArrayInputStream inputStream) {
+  public Object map(String mapperId, InputStream inputStream) {
     Object mappedPOJO = null;
     if (mapperId.equals(MapperID.PODAAC_GCMD.name())) {
       mappedPOJO = mapGCMDXMLToPOJO(inputStream);
@@ -71,14 +72,14 @@ public class PODAACWebServiceObjectMapper implements ObjectMapper {
     return mappedPOJO;
   }
 
-  private DIF mapGCMDXMLToPOJO(ByteArrayInputStream gcmdByteArrayInputStream) {
+  private DIF mapGCMDXMLToPOJO(InputStream gcmdInputStream) {
     // create DIF
     DIF dif = new DIF();
     try {
       SAXBuilder jdomBuilder = new SAXBuilder();
 
       // jdomDocument is the JDOM2 Object
-      Document jdomDocument = jdomBuilder.build(gcmdByteArrayInputStream);
+      Document jdomDocument = jdomBuilder.build(gcmdInputStream);
       Element difElement = jdomDocument.getRootElement();
       Namespace ns = difElement.getNamespace();
       // populate immediate children
@@ -377,6 +378,10 @@ public class PODAACWebServiceObjectMapper implements ObjectMapper {
         dif.getIDNNode().add(idnNode);
       }
 
+    } catch (IOException e) {
+      // the content could not be read at all, there is no partial DIF to return
+      LOG.error("Error whilst reading GCMD XML: ", e);
+      return null;
     } catch (Exception e) {
       LOG.error("Error whilst parsing Atom XML response from Dataset Search: ", e);
     }
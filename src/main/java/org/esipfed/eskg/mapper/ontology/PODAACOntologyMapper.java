@@ -13,11 +13,19 @@
  */
 package org.esipfed.eskg.mapper.ontology;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.jena.datatypes.RDFDatatype;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
@@ -53,6 +61,8 @@ import org.esipfed.eskg.structures.SourceName;
 import org.esipfed.eskg.structures.SpatialCoverage;
 import org.esipfed.eskg.structures.Summary;
 import org.esipfed.eskg.structures.TemporalCoverage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author lewismc
@@ -64,6 +74,28 @@ public class PODAACOntologyMapper implements ObjectMapper {
   private static final String MUDROD_GCMD_DIF_9_8_2 = "https://raw.githubusercontent.com/mudrod/mudrod_ontologies/master/dif_v9.8.2.owl";
   private static final String MUDROD_GCMD_DIF_9_8_2_NS = MUDROD_GCMD_DIF_9_8_2 + "/";
   private static final String PODAAC_DATASET = "http://cor.esipfed.org/ont/eskg/";
+  private static final String INCREMENTAL = "eskg.incremental";
+  private static final String INCREMENTAL_INDEX = "eskg.incremental.index";
+
+  private static final Logger LOG = LoggerFactory.getLogger(PODAACOntologyMapper.class);
+
+  /** the model and index retained between incremental runs */
+  private OntModel ontModel;
+  private RevisionIndex revisionIndex;
+
+  /** state of the harvest currently being mapped */
+  private boolean incrementalSession;
+  private OntModel sessionModel;
+  private OntClass sessionClass;
+  private Set<String> unseen;
+  private Set<String> mapped;
+  /** datasets listed by the catalog search, and those whose record was mapped */
+  private final Set<String> listedDatasets = ConcurrentHashMap.newKeySet();
+  private Set<String> mappedDatasets;
+  private int duplicates;
+  private int added;
+  private int changed;
+  private int unchanged;
 
   /**
    * 
@@ -73,34 +105,383 @@ public class PODAACOntologyMapper implements ObjectMapper {
   }
 
   @Override
-  public Object map(String mapperId, ByteArrayInputStream inputStream) {
+  public Object map(String mapperId, InputStream inputStream) {
     return null;
   }
 
   @Override
   public void map(List<DIF> pojoList, Properties props) {
+    map(pojoList, Collections.<String, String> emptyMap(), props);
+  }
+
+  /**
+   * Maps DIF POJO's into the PO.DAAC Dataset ontology and writes the resulting
+   * model. When <code>eskg.incremental</code> is enabled the model and a
+   * {@link RevisionIndex} from the previous run are reused; only individuals
+   * for new or changed records are rebuilt and individuals for records no
+   * longer present are removed. Otherwise the model is rebuilt from scratch.
+   * 
+   * @param pojoList
+   *          the complete list of records harvested during this run
+   * @param contentDigests
+   *          digests of the content each record was parsed from, keyed by
+   *          Entry_ID, used alongside Last_DIF_Revision_Date to detect changes
+   * @param props
+   *          runtime properties
+   */
+  public void map(List<DIF> pojoList, Map<String, String> contentDigests, Properties props) {
+    map(pojoList, contentDigests, props, false);
+  }
+
+  /**
+   * Maps DIF POJO's as {@link #map(List, Map, Properties)}, optionally merging
+   * a partial harvest into the existing model, see
+   * {@link #begin(Properties, boolean)}.
+   * 
+   * @param pojoList
+   *          the records harvested during this run
+   * @param contentDigests
+   *          digests of the content each record was parsed from, keyed by
+   *          Entry_ID
+   * @param props
+   *          runtime properties
+   * @param partial
+   *          true if the records are a subset of the catalog
+   */
+  public void map(List<DIF> pojoList, Map<String, String> contentDigests, Properties props, boolean partial) {
+    begin(props, partial);
+    for (DIF dif : pojoList) {
+      add(dif, dif.getEntryID() != null ? contentDigests.get(dif.getEntryID()) : null);
+    }
+    finish(props);
+  }
+
+  /**
+   * Starts mapping a harvest whose records will be supplied one at a time
+   * through {@link #add(DIF, String)}, allowing records to be mapped as they
+   * arrive rather than once the complete list has been retrieved. The mapper
+   * is not thread safe, records must be added from a single thread.
+   * 
+   * @param props
+   *          runtime properties
+   */
+  public void begin(Properties props) {
+    begin(props, false);
+  }
+
+  /**
+   * Starts mapping a harvest as {@link #begin(Properties)}. A partial harvest,
+   * such as one restricted to a region or mission, supplies only some of the
+   * catalog; its records are merged into the model written by the previous run
+   * and no record is removed for being absent, whether or not
+   * <code>eskg.incremental</code> is enabled.
+   * 
+   * @param props
+   *          runtime properties
+   * @param partial
+   *          true if the harvest supplies a subset of the catalog
+   */
+  public void begin(Properties props, boolean partial) {
+    incrementalSession = partial || Boolean.parseBoolean(props.getProperty(INCREMENTAL, "false"));
+    if (incrementalSession) {
+      if (ontModel == null) {
+        loadPreviousModel(props, partial);
+      }
+      sessionModel = ontModel;
+      unseen = partial ? new HashSet<>() : revisionIndex.entryIds();
+    } else {
+      sessionModel = createOntologyModel();
+    }
+    sessionClass = podaacDatasetClass(sessionModel);
+    mapped = new HashSet<>();
+    listedDatasets.clear();
+    mappedDatasets = new HashSet<>();
+    duplicates = 0;
+    added = 0;
+    changed = 0;
+    unchanged = 0;
+  }
+
+  /**
+   * Records that the catalog search of the harvest started by
+   * {@link #begin(Properties)} listed a dataset. Once a harvest has listed its
+   * datasets, a previously mapped record is only removed by
+   * {@link #finish(Properties)} if its dataset was not listed, such that a
+   * record which merely failed to be retrieved keeps its previous individual.
+   * May be called from any thread during a harvest.
+   * 
+   * @param datasetKey
+   *          the key identifying the dataset within its catalog
+   */
+  public void listed(String datasetKey) {
+    listedDatasets.add(datasetKey);
+  }
+
+  /**
+   * Maps a single record as part of the harvest started by
+   * {@link #begin(Properties)}. A record whose Entry_ID has already been
+   * mapped during the harvest is counted as a duplicate and ignored.
+   * 
+   * @param dif
+   *          the record
+   * @param contentDigest
+   *          digest of the content the record was parsed from, may be null
+   */
+  public void add(DIF dif, String contentDigest) {
+    add(dif, contentDigest, null);
+  }
+
+  /**
+   * Maps a single record as {@link #add(DIF, String)}, recording the dataset
+   * it was harvested from.
+   * 
+   * @param dif
+   *          the record
+   * @param contentDigest
+   *          digest of the content the record was parsed from, may be null
+   * @param datasetKey
+   *          the key of the dataset as passed to {@link #listed(String)}, may
+   *          be null if unknown
+   */
+  public void add(DIF dif, String contentDigest, String datasetKey) {
+    String entryId = dif.getEntryID();
+    if (!mapped.add(String.valueOf(entryId))) {
+      duplicates++;
+      return;
+    }
+    if (datasetKey != null) {
+      mappedDatasets.add(datasetKey);
+    }
+    if (!incrementalSession) {
+      // create an individual for each DIF POJO
+      Individual gcmdDif = sessionClass.createIndividual(PODAAC_DATASET + entryId);
+      buildIndividual(sessionModel, dif, gcmdDif);
+      added++;
+      return;
+    }
+    unseen.remove(entryId);
+    String fingerprint = RevisionIndex.fingerprint(dif.getLastDIFRevisionDate(), contentDigest);
+    String previousKey = revisionIndex.datasetKey(entryId);
+    if (!revisionIndex.isChanged(entryId, fingerprint)) {
+      if (datasetKey != null && !datasetKey.equals(previousKey)) {
+        revisionIndex.put(entryId, fingerprint, datasetKey);
+      }
+      unchanged++;
+      return;
+    }
+    if (revisionIndex.contains(entryId)) {
+      changed++;
+    } else {
+      added++;
+    }
+    // replace every statement about the individual
+    sessionModel.removeAll(sessionModel.getResource(PODAAC_DATASET + entryId), null, null);
+    buildIndividual(sessionModel, dif, sessionClass.createIndividual(PODAAC_DATASET + entryId));
+    revisionIndex.put(entryId, fingerprint, datasetKey != null ? datasetKey : previousKey);
+  }
+
+  /**
+   * @return true if the harvest begun by {@link #begin(Properties, boolean)}
+   *         is incremental, such that unchanged records may be retained
+   */
+  public boolean isIncremental() {
+    return incrementalSession;
+  }
+
+  /**
+   * Finds the record which may be retained through
+   * {@link #retain(String, String)} rather than parsed and added for a
+   * dataset. That is the case in incremental mode when the model holds the
+   * individual built by a previous run for the dataset from content with the
+   * same digest. May be called from any thread during a harvest.
+   * 
+   * @param datasetKey
+   *          the key of the dataset as passed to {@link #listed(String)}
+   * @param contentDigest
+   *          digest of the content the record would be parsed from
+   * @return the Entry_ID of the record to retain, or null if the record must
+   *         be parsed and added
+   */
+  public String retainableEntryId(String datasetKey, String contentDigest) {
+    if (!incrementalSession || revisionIndex == null) {
+      return null;
+    }
+    String entryId = revisionIndex.entryId(datasetKey);
+    return entryId != null && revisionIndex.hasContentDigest(entryId, contentDigest) ? entryId : null;
+  }
+
+  /**
+   * Keeps the individual built by a previous run for a record whose content is
+   * unchanged, as part of the harvest started by {@link #begin(Properties)},
+   * without the record being parsed or its individual rebuilt.
+   * 
+   * @param entryId
+   *          the Entry_ID returned by
+   *          {@link #retainableEntryId(String, String)}
+   */
+  public void retain(String entryId) {
+    retain(entryId, null);
+  }
+
+  /**
+   * Keeps the individual of an unchanged record as {@link #retain(String)},
+   * recording the dataset it was harvested from.
+   * 
+   * @param entryId
+   *          the Entry_ID returned by
+   *          {@link #retainableEntryId(String, String)}
+   * @param datasetKey
+   *          the key of the dataset as passed to {@link #listed(String)}, may
+   *          be null if unknown
+   */
+  public void retain(String entryId, String datasetKey) {
+    if (!incrementalSession) {
+      throw new IllegalStateException("Records can only be retained in incremental mode.");
+    }
+    if (!mapped.add(String.valueOf(entryId))) {
+      duplicates++;
+      return;
+    }
+    if (datasetKey != null) {
+      mappedDatasets.add(datasetKey);
+      if (!datasetKey.equals(revisionIndex.datasetKey(entryId)) && revisionIndex.contains(entryId)) {
+        revisionIndex.put(entryId, revisionIndex.getFingerprint(entryId), datasetKey);
+      }
+    }
+    unseen.remove(entryId);
+    unchanged++;
+  }
+
+  /**
+   * Completes the harvest started by {@link #begin(Properties)}, removing any
+   * previously mapped records which were not supplied in incremental mode,
+   * unless the harvest was partial, and writes the model. Should some dataset
+   * {@link #listed(String)} by the harvest not have been mapped, as when its
+   * record could not be retrieved, only records whose dataset is known and was
+   * not listed are removed; every other record keeps its previous individual.
+   * In incremental mode
+   * the revision index is only stored once the model has been written, such
+   * that the index never describes records the stored model does not hold.
+   * 
+   * @param props
+   *          runtime properties
+   * @throws UncheckedIOException
+   *           if the model cannot be written, in which case the harvest is
+   *           abandoned as by {@link #abort()}
+   */
+  public void finish(Properties props) {
+    if (!incrementalSession) {
+      LOG.info("Mapped {} records, ignored {} duplicate(s).", added, duplicates);
+      try {
+        writeOntologyModel(sessionModel, props);
+      } finally {
+        sessionModel = null;
+        mapped = null;
+      }
+      return;
+    }
+    Set<String> unmappedDatasets = new HashSet<>(listedDatasets);
+    unmappedDatasets.removeAll(mappedDatasets);
+    int removed = 0;
+    int kept = 0;
+    for (String entryId : unseen) {
+      String datasetKey = revisionIndex.datasetKey(entryId);
+      if (!unmappedDatasets.isEmpty() && (datasetKey == null || unmappedDatasets.contains(datasetKey))) {
+        kept++;
+        continue;
+      }
+      sessionModel.removeAll(sessionModel.getResource(PODAAC_DATASET + entryId), null, null);
+      revisionIndex.remove(entryId);
+      removed++;
+    }
+    if (!unmappedDatasets.isEmpty()) {
+      LOG.warn("{} listed dataset(s) were not mapped, {} previously mapped record(s) kept.", unmappedDatasets.size(), kept);
+    }
+    LOG.info("Incremental mapping: {} added, {} changed, {} removed, {} unchanged, {} duplicate(s) ignored.", added, changed,
+        removed, unchanged, duplicates);
+
+    try {
+      writeOntologyModel(sessionModel, props);
+    } catch (UncheckedIOException e) {
+      // the retained model and index no longer match the stored model
+      abort();
+      throw e;
+    }
+    try {
+      revisionIndex.store();
+    } catch (IOException e) {
+      LOG.error("Error whilst storing revision index, the next run will rebuild the model.", e);
+      ontModel = null;
+    }
+    sessionModel = null;
+    unseen = null;
+    mapped = null;
+    mappedDatasets = null;
+  }
+
+  /**
+   * Abandons the harvest started by {@link #begin(Properties)} without writing
+   * the model. In incremental mode the retained model may already hold some of
+   * the records added, it is therefore discarded such that the next harvest
+   * starts again from the model last written.
+   */
+  public void abort() {
+    if (incrementalSession) {
+      ontModel = null;
+    }
+    sessionModel = null;
+    unseen = null;
+    mapped = null;
+    mappedDatasets = null;
+  }
+
+  /**
+   * Loads the model and revision index written by the previous run. If either
+   * is missing the index is cleared such that every record is rebuilt. A
+   * partial harvest must not discard the records it does not supply, so the
+   * model is loaded even without an index.
+   */
+  private void loadPreviousModel(Properties props, boolean partial) {
+    String ontFile = props.getProperty("eskg.file.name", "target/classes/podaacDatasets.ttl");
+    revisionIndex = new RevisionIndex(new File(props.getProperty(INCREMENTAL_INDEX, ontFile + ".index")));
+    ontModel = createOntologyModel();
+    boolean indexed = false;
+    try {
+      indexed = revisionIndex.load();
+    } catch (IOException e) {
+      LOG.warn("Unable to read revision index, rebuilding the model.", e);
+    }
+    if ((indexed || partial) && new File(ontFile).exists()) {
+      RDFDataMgr.read(ontModel, ontFile, Lang.TURTLE);
+      LOG.info("Loaded previous model from {} with {} indexed records.", ontFile, revisionIndex.entryIds().size());
+    } else if (partial) {
+      LOG.warn("No previous model at {}, the partial harvest will be written alone.", ontFile);
+    }
+    if (!indexed) {
+      revisionIndex.clear();
+    }
+  }
+
+  private static OntModel createOntologyModel() {
     // create the base model
     //Model ontModel = RDFDataMgr.loadModel(PODAAC_DATASET + "PODAACDataset", Lang.TURTLE);
-    OntModel ontModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
-    ontModel.setNsPrefix("base", PODAAC_DATASET + "PODAACDataset");
-    ontModel.setNsPrefix("dif_v9.8.2", MUDROD_GCMD_DIF_9_8_2);
+    OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+    model.setNsPrefix("base", PODAAC_DATASET + "PODAACDataset");
+    model.setNsPrefix("dif_v9.8.2", MUDROD_GCMD_DIF_9_8_2);
     //ontModel.setNsPrefix("geo", "http://www.opengis.net/ont/geosparql#");
     //ontModel.read(PODAAC_DATASET + "PODAACDataset", PODAAC_DATASET + "PODAACDataset", "TURTLE");
+    return model;
+  }
 
+  private static OntClass podaacDatasetClass(OntModel model) {
     // get the https://sweetontology.net/reprDataProduct/Dataset class reference
-    Resource dataset = ontModel.getResource(SWEET_REPR_DATA_PRODUCT_NS + "Dataset");
+    Resource dataset = model.getResource(SWEET_REPR_DATA_PRODUCT_NS + "Dataset");
     // create the https://sweetontology.net/reprDataProduct/PODAACDataset class
     // reference
-    OntClass podaacDataset = ontModel.createClass(PODAAC_DATASET + "PODAACDataset");
+    OntClass podaacDataset = model.createClass(PODAAC_DATASET + "PODAACDataset");
     // make PODAACDataset a subclass of Dataset
     podaacDataset.addSuperClass(dataset);
-    
-    // create an individual for each DIF POJO
-    for (DIF dif : pojoList) {
-      Individual gcmdDif = podaacDataset.createIndividual(PODAAC_DATASET + dif.getEntryID());
-      buildIndividual(ontModel, dif, gcmdDif);
-    }
-    writeOntologyModel(ontModel, props);
+    return podaacDataset;
   }
 
   private void writeOntologyModel(OntModel ontModel, Properties props) {
@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.mapper.ontology;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A persisted index of DIF <code>Entry_ID</code> to the fingerprint of the
+ * record which was last mapped into the ontology model. A fingerprint combines
+ * the <code>Last_DIF_Revision_Date</code> with a digest of the record content
+ * such that a record is considered changed when either differs. Where known,
+ * the key of the catalog dataset the record was harvested from is kept
+ * alongside its fingerprint, such that the record last mapped for a dataset
+ * can be found before the dataset's content is parsed. The index may be read
+ * from many threads whilst a single thread updates it.
+ */
+public class RevisionIndex {
+
+  private static final String SEPARATOR = "|";
+
+  private final File file;
+
+  private final Properties fingerprints = new Properties();
+
+  /** the Entry_ID last mapped for each dataset key */
+  private final Map<String, String> entryIds = new ConcurrentHashMap<>();
+
+  /**
+   * @param file
+   *          the file the index is loaded from and stored to
+   */
+  public RevisionIndex(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the index from disk.
+   *
+   * @return false if no index had previously been stored
+   * @throws IOException
+   *           if the index exists but cannot be read
+   */
+  public boolean load() throws IOException {
+    clear();
+    if (!file.exists()) {
+      return false;
+    }
+    try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      fingerprints.load(reader);
+    }
+    for (String entryId : fingerprints.stringPropertyNames()) {
+      String datasetKey = datasetKey(entryId);
+      if (datasetKey != null) {
+        entryIds.put(datasetKey, entryId);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Atomically replaces the stored index with the current contents.
+   *
+   * @throws IOException
+   *           if the index cannot be written
+   */
+  public void store() throws IOException {
+    Path target = file.getAbsoluteFile().toPath();
+    Files.createDirectories(target.getParent());
+    Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      fingerprints.store(writer, "Entry_ID to Last_DIF_Revision_Date" + SEPARATOR + "content digest" + SEPARATOR + "dataset key");
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @param revisionDate
+   *          the Last_DIF_Revision_Date of the record
+   * @param contentDigest
+   *          a digest of the record content, may be null if unknown
+   * @return the fingerprint of a record
+   */
+  public static String fingerprint(String revisionDate, String contentDigest) {
+    return (revisionDate == null ? "" : revisionDate) + SEPARATOR + (contentDigest == null ? "" : contentDigest);
+  }
+
+  /**
+   * @return true if the record is unknown or its fingerprint differs from the
+   *         one stored
+   */
+  public boolean isChanged(String entryId, String fingerprint) {
+    return !fingerprint.equals(getFingerprint(entryId));
+  }
+
+  /**
+   * @return true if the record was last mapped from content with the given
+   *         digest
+   */
+  public boolean hasContentDigest(String entryId, String contentDigest) {
+    String[] fields = fields(entryId);
+    return fields != null && contentDigest != null && contentDigest.equals(fields[1]);
+  }
+
+  /**
+   * @return the fingerprint stored for the record, or null if it is unknown
+   */
+  public String getFingerprint(String entryId) {
+    String[] fields = fields(entryId);
+    return fields == null ? null : fields[0] + SEPARATOR + fields[1];
+  }
+
+  /**
+   * @return the key of the dataset the record was harvested from, or null if
+   *         it is unknown
+   */
+  public String datasetKey(String entryId) {
+    String[] fields = fields(entryId);
+    return fields != null && fields.length > 2 && !fields[2].isEmpty() ? fields[2] : null;
+  }
+
+  /**
+   * @return the Entry_ID of the record last mapped from the dataset with the
+   *         given key, or null if none is known
+   */
+  public String entryId(String datasetKey) {
+    return entryIds.get(datasetKey);
+  }
+
+  /**
+   * @return the revision date, content digest and, for records stored with
+   *         one, dataset key of a record, or null if the record is unknown
+   */
+  private String[] fields(String entryId) {
+    String value = fingerprints.getProperty(entryId);
+    return value == null ? null : value.split(Pattern.quote(SEPARATOR), 3);
+  }
+
+  /**
+   * @return true if the record has previously been mapped
+   */
+  public boolean contains(String entryId) {
+    return fingerprints.containsKey(entryId);
+  }
+
+  /**
+   * Records the fingerprint of a record which has been mapped.
+   */
+  public void put(String entryId, String fingerprint) {
+    put(entryId, fingerprint, null);
+  }
+
+  /**
+   * Records the fingerprint of a record which has been mapped and the key of
+   * the dataset it was harvested from.
+   *
+   * @param datasetKey
+   *          the dataset key, may be null if unknown
+   */
+  public void put(String entryId, String fingerprint, String datasetKey) {
+    String previousKey = datasetKey(entryId);
+    if (previousKey != null && !previousKey.equals(datasetKey)) {
+      entryIds.remove(previousKey, entryId);
+    }
+    fingerprints.setProperty(entryId, datasetKey == null ? fingerprint : fingerprint + SEPARATOR + datasetKey);
+    if (datasetKey != null) {
+      entryIds.put(datasetKey, entryId);
+    }
+  }
+
+  /**
+   * Forgets a record which has been removed from the model.
+   */
+  public void remove(String entryId) {
+    String datasetKey = datasetKey(entryId);
+    if (datasetKey != null) {
+      entryIds.remove(datasetKey, entryId);
+    }
+    fingerprints.remove(entryId);
+  }
+
+  /**
+   * @return the Entry_IDs of every record in the index
+   */
+  public Set<String> entryIds() {
+    return new HashSet<>(fingerprints.stringPropertyNames());
+  }
+
+  /**
+   * Forgets every record.
+   */
+  public void clear() {
+    fingerprints.clear();
+    entryIds.clear();
+  }
+
+}
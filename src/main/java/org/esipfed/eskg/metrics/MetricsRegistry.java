@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of named metrics shared by every component of a harvest.
+ * <ul>
+ * <li><b>counters</b> only increase, such as requests made or bytes
+ * received.</li>
+ * <li><b>levels</b> rise and fall, such as requests in flight.</li>
+ * <li><b>gauges</b> read a value owned by another component when
+ * reported.</li>
+ * <li><b>histograms</b> record a distribution, such as request latency in
+ * microseconds.</li>
+ * </ul>
+ * Names are dotted, for example <code>podaac.requests</code>. Metrics are
+ * created on first use and live for the life of the registry, so callers
+ * should look a metric up once and keep it where it is updated often.
+ */
+public class MetricsRegistry {
+
+  private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, LongAdder> levels = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  private final long startedAt = System.nanoTime();
+
+  /**
+   * @return the registry shared by the whole process
+   */
+  public static MetricsRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @return the counter with the given name
+   */
+  public LongAdder counter(String name) {
+    return counters.computeIfAbsent(name, n -> new LongAdder());
+  }
+
+  /**
+   * @return the level with the given name
+   */
+  public LongAdder level(String name) {
+    return levels.computeIfAbsent(name, n -> new LongAdder());
+  }
+
+  /**
+   * Registers a gauge, replacing any gauge of the same name.
+   *
+   * @param name
+   *          the name of the gauge
+   * @param supplier
+   *          reads the value of the gauge
+   */
+  public void gauge(String name, LongSupplier supplier) {
+    gauges.put(name, supplier);
+  }
+
+  /**
+   * @return the histogram with the given name
+   */
+  public Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  /**
+   * @return the number of nanoseconds since the registry was created
+   */
+  public long getUptimeNanos() {
+    return System.nanoTime() - startedAt;
+  }
+
+  /**
+   * @return the current value of every counter, sorted by name
+   */
+  public Map<String, Long> getCounters() {
+    return sum(counters);
+  }
+
+  /**
+   * @return the current value of every level and gauge, sorted by name
+   */
+  public Map<String, Long> getGauges() {
+    Map<String, Long> values = sum(levels);
+    for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+      values.put(gauge.getKey(), gauge.getValue().getAsLong());
+    }
+    return values;
+  }
+
+  /**
+   * @return every histogram, sorted by name
+   */
+  public Map<String, Histogram> getHistograms() {
+    return new TreeMap<>(histograms);
+  }
+
+  private static Map<String, Long> sum(Map<String, LongAdder> adders) {
+    Map<String, Long> values = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> adder : adders.entrySet()) {
+      values.put(adder.getKey(), adder.getValue().sum());
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exports the metrics of a {@link MetricsRegistry}, as a summary logged
+ * periodically and in the Prometheus text format from an HTTP endpoint. The
+ * periodic summary reports the rate of every counter over the interval, for
+ * example records per second. The reporter is configured with
+ * <ul>
+ * <li><b>eskg.metrics.logInterval</b>; seconds between summaries, none are
+ * logged when zero.</li>
+ * <li><b>eskg.metrics.host</b> and <b>eskg.metrics.port</b>; the address
+ * <code>/metrics</code> is served from, metrics are not served when the port
+ * is unset.</li>
+ * </ul>
+ */
+public class MetricsReporter implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsReporter.class);
+
+  private static final String METRICS_PATH = "/metrics";
+
+  private static final double[] PERCENTILES = { 50, 95, 99 };
+
+  private final MetricsRegistry registry;
+
+  private ScheduledExecutorService timer;
+
+  private HttpServer server;
+
+  /** counter values at the previous summary */
+  private Map<String, Long> previous = new HashMap<>();
+
+  private long previousNanos;
+
+  private MetricsReporter(MetricsRegistry registry) {
+    this.registry = registry;
+    this.previousNanos = registry.getUptimeNanos();
+  }
+
+  /**
+   * Starts reporting the default registry as configured by
+   * <code>eskg.metrics.*</code>.
+   *
+   * @param props
+   *          runtime properties, see the class description for the keys used
+   * @return the reporter
+   * @throws IOException
+   *           if the metrics port cannot be bound
+   */
+  public static MetricsReporter fromProperties(Properties props) throws IOException {
+    MetricsReporter reporter = new MetricsReporter(MetricsRegistry.getDefault());
+    long interval = Long.parseLong(props.getProperty("eskg.metrics.logInterval", "60").trim());
+    if (interval > 0) {
+      reporter.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "eskg-metrics");
+        t.setDaemon(true);
+        return t;
+      });
+      reporter.timer.scheduleAtFixedRate(reporter::logSummary, interval, interval, TimeUnit.SECONDS);
+    }
+    String port = props.getProperty("eskg.metrics.port", "").trim();
+    if (!port.isEmpty()) {
+      String host = props.getProperty("eskg.metrics.host", "localhost").trim();
+      reporter.server = HttpServer.create(new InetSocketAddress(host, Integer.parseInt(port)), 0);
+      reporter.server.createContext(METRICS_PATH, handler(reporter.registry));
+      reporter.server.start();
+      LOG.info("Serving metrics at http://{}:{}{}", host, reporter.server.getAddress().getPort(), METRICS_PATH);
+    }
+    return reporter;
+  }
+
+  /**
+   * Creates a handler serving a registry in the Prometheus text format, such
+   * that metrics may be served alongside other endpoints.
+   *
+   * @param registry
+   *          the registry to serve
+   * @return the handler
+   */
+  public static HttpHandler handler(MetricsRegistry registry) {
+    return exchange -> {
+      byte[] body = exposition(registry).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    };
+  }
+
+  /**
+   * Formats a registry in the Prometheus text format. Names are prefixed with
+   * <code>eskg_</code> and histograms are exported as summaries.
+   *
+   * @param registry
+   *          the registry to format
+   * @return the formatted metrics
+   */
+  public static String exposition(MetricsRegistry registry) {
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Long> counter : registry.getCounters().entrySet()) {
+      String name = metricName(counter.getKey());
+      text.append("# TYPE ").append(name).append(" counter\n");
+      text.append(name).append(' ').append(counter.getValue()).append('\n');
+    }
+    for (Map.Entry<String, Long> gauge : registry.getGauges().entrySet()) {
+      String name = metricName(gauge.getKey());
+      text.append("# TYPE ").append(name).append(" gauge\n");
+      text.append(name).append(' ').append(gauge.getValue()).append('\n');
+    }
+    for (Map.Entry<String, Histogram> histogram : registry.getHistograms().entrySet()) {
+      String name = metricName(histogram.getKey());
+      Histogram h = histogram.getValue();
+      text.append("# TYPE ").append(name).append(" summary\n");
+      for (double percentile : PERCENTILES) {
+        text.append(name).append("{quantile=\"").append(percentile / 100).append("\"} ").append(h.getPercentile(percentile)).append('\n');
+      }
+      text.append(name).append("_sum ").append(Math.round(h.getMean() * h.getCount())).append('\n');
+      text.append(name).append("_count ").append(h.getCount()).append('\n');
+    }
+    text.append("# TYPE eskg_uptime_seconds gauge\n");
+    text.append("eskg_uptime_seconds ").append(TimeUnit.NANOSECONDS.toSeconds(registry.getUptimeNanos())).append('\n');
+    return text.toString();
+  }
+
+  private static String metricName(String name) {
+    return "eskg_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+  }
+
+  /**
+   * Logs the value of every metric, with the rate of every counter since the
+   * previous summary.
+   */
+  public synchronized void logSummary() {
+    long now = registry.getUptimeNanos();
+    double seconds = Math.max(1e-9, (now - previousNanos) / 1e9);
+    Map<String, Long> counters = registry.getCounters();
+    StringBuilder summary = new StringBuilder("Metrics over the last ").append(Math.round(seconds)).append("s:");
+    for (Map.Entry<String, Long> counter : counters.entrySet()) {
+      long delta = counter.getValue() - previous.getOrDefault(counter.getKey(), 0L);
+      summary.append("\n  ").append(counter.getKey()).append('=').append(counter.getValue())
+          .append(String.format(Locale.ROOT, " (%.1f/s)", delta / seconds));
+    }
+    for (Map.Entry<String, Long> gauge : registry.getGauges().entrySet()) {
+      summary.append("\n  ").append(gauge.getKey()).append('=').append(gauge.getValue());
+    }
+    for (Map.Entry<String, Histogram> histogram : registry.getHistograms().entrySet()) {
+      Histogram h = histogram.getValue();
+      summary.append("\n  ").append(histogram.getKey()).append(String.format(Locale.ROOT, " count=%d mean=%.1f p50=%d p95=%d p99=%d max=%d",
+          h.getCount(), h.getMean(), h.getPercentile(50), h.getPercentile(95), h.getPercentile(99), h.getMax()));
+    }
+    LOG.info(summary.toString());
+    previous = counters;
+    previousNanos = now;
+  }
+
+  /**
+   * Logs a final summary and stops reporting.
+   */
+  @Override
+  public void close() {
+    if (timer != null) {
+      timer.shutdownNow();
+      logSummary();
+    }
+    if (server != null) {
+      server.stop(0);
+    }
+  }
+
+}
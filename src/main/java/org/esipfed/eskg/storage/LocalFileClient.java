@@ -13,12 +13,16 @@
  */
 package org.esipfed.eskg.storage;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Properties;
 
 import org.apache.jena.ontology.OntModel;
@@ -48,18 +52,65 @@ public class LocalFileClient implements StorageClient {
     }
   }
 
+  /**
+   * Writes the model to <code>eskg.file.name</code> as Turtle or, when the
+   * file name ends with <code>.nt</code>, as N-Triples sorted line by line,
+   * such that partial graphs written by partitioned harvests can be combined
+   * with a streaming {@link NTriplesMerger}. The model is written to a
+   * temporary file which then replaces the previous file, such that a failed
+   * write leaves the previous model in place.
+   * 
+   * @throws UncheckedIOException
+   *           if the model cannot be written
+   */
   @Override
   public void write(OntModel ontModel, Properties props) {
     String ontFile = props.getProperty("eskg.file.name", "target/classes/podaacDatasets.ttl");
-    try (OutputStream fos = new FileOutputStream(ontFile);
-            Writer writer = new OutputStreamWriter(fos, Charset.defaultCharset())){
-      ontModel.write(writer, "TURTLE");
+    Path target = Paths.get(ontFile).toAbsolutePath();
+    Path temp = null;
+    try {
+      Files.createDirectories(target.getParent());
+      temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+      try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        if (ontFile.endsWith(NTriplesMerger.NTRIPLES_EXTENSION)) {
+          writeSortedNTriples(ontModel, writer);
+        } else {
+          ontModel.write(writer, "TURTLE");
+        }
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
     } catch (IOException e) {
       LOG.error("Error whilst writing Ontology Model to {}.", ontFile, e);
+      deleteQuietly(temp);
+      throw new UncheckedIOException("Unable to write Ontology Model to " + ontFile, e);
     }
     LOG.info("Successfully wrote Ontology Model to {}.", ontFile);
   }
 
+  private static void deleteQuietly(Path temp) {
+    if (temp == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(temp);
+    } catch (IOException e) {
+      LOG.warn("Unable to delete {}.", temp, e);
+    }
+  }
+
+  private static void writeSortedNTriples(OntModel ontModel, Writer writer) throws IOException {
+    StringWriter triples = new StringWriter();
+    ontModel.write(triples, "N-TRIPLE");
+    String[] lines = triples.toString().split("\n");
+    Arrays.sort(lines);
+    for (String line : lines) {
+      if (!line.isEmpty()) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    }
+  }
+
   /**
    * @return the props
    */
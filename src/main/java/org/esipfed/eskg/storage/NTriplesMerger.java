@@ -0,0 +1,260 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.XSD;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Combines the partial graphs written by a partitioned harvest into a single
+ * graph. Each partial must be written as sorted N-Triples, as
+ * {@link LocalFileClient} does for a <code>.nt</code> file. The partials are
+ * merged line by line such that only one line of each is held in memory at a
+ * time, no model is built, and triples present in several partials, such as
+ * the class definitions every partial repeats, are written once. The output
+ * is itself sorted, so it is identical whichever order the partials are
+ * given in and however the catalog was partitioned. The output is N-Triples
+ * when its name ends with <code>.nt</code>, and otherwise Turtle streamed from
+ * the merged triples. The mapper creates no blank nodes, whose labels would be
+ * local to each partial and cannot be merged textually.
+ */
+public class NTriplesMerger {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NTriplesMerger.class);
+
+  /** the extension of files written and read as N-Triples */
+  public static final String NTRIPLES_EXTENSION = ".nt";
+
+  private static final String OUTPUT_OPT = "output";
+
+  private NTriplesMerger() {
+    // utility class
+  }
+
+  /**
+   * Merges sorted N-Triples partials into a single graph.
+   *
+   * @param partials
+   *          the partial graphs, each sorted line by line
+   * @param output
+   *          the file to write, as N-Triples if its name ends with
+   *          <code>.nt</code> and as Turtle otherwise
+   * @return the number of distinct triples written
+   * @throws IOException
+   *           if a partial cannot be read or is not sorted, or the output
+   *           cannot be written
+   */
+  public static long merge(List<File> partials, File output) throws IOException {
+    if (output.getName().endsWith(NTRIPLES_EXTENSION)) {
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+        return merge(partials, writer);
+      }
+    }
+    File merged = File.createTempFile("eskg-merge", NTRIPLES_EXTENSION, output.getAbsoluteFile().getParentFile());
+    try {
+      long triples;
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(merged), StandardCharsets.UTF_8))) {
+        triples = merge(partials, writer);
+      }
+      try (OutputStream out = new FileOutputStream(output)) {
+        writeTurtle(merged, out);
+      }
+      return triples;
+    } finally {
+      Files.deleteIfExists(merged.toPath());
+    }
+  }
+
+  /**
+   * Merges sorted N-Triples partials, writing each distinct line once in
+   * sorted order.
+   *
+   * @param partials
+   *          the partial graphs, each sorted line by line
+   * @param writer
+   *          receives the merged N-Triples
+   * @return the number of distinct triples written
+   * @throws IOException
+   *           if a partial cannot be read or is not sorted
+   */
+  public static long merge(List<File> partials, Writer writer) throws IOException {
+    List<BufferedReader> readers = new ArrayList<>();
+    PriorityQueue<Cursor> heads = new PriorityQueue<>();
+    long written = 0;
+    long duplicates = 0;
+    try {
+      for (File partial : partials) {
+        BufferedReader reader = Files.newBufferedReader(partial.toPath(), StandardCharsets.UTF_8);
+        readers.add(reader);
+        Cursor cursor = new Cursor(partial, reader);
+        if (cursor.advance()) {
+          heads.add(cursor);
+        }
+      }
+      String previous = null;
+      while (!heads.isEmpty()) {
+        Cursor head = heads.poll();
+        if (head.line.equals(previous)) {
+          duplicates++;
+        } else {
+          writer.write(head.line);
+          writer.write('\n');
+          previous = head.line;
+          written++;
+        }
+        if (head.advance()) {
+          heads.add(head);
+        }
+      }
+    } finally {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+    }
+    LOG.info("Merged {} partial(s) into {} triples, {} duplicate(s) dropped.", partials.size(), written, duplicates);
+    return written;
+  }
+
+  /**
+   * Streams N-Triples to Turtle in blocks of triples sharing a subject,
+   * without building a model.
+   */
+  private static void writeTurtle(File ntriples, OutputStream out) {
+    StreamRDF turtle = StreamRDFWriter.getWriterStream(out, RDFFormat.TURTLE_BLOCKS);
+    turtle.start();
+    turtle.prefix("owl", OWL.getURI());
+    turtle.prefix("rdf", RDF.getURI());
+    turtle.prefix("rdfs", RDFS.getURI());
+    turtle.prefix("xsd", XSD.getURI());
+    turtle.prefix("dif_v9.8.2", "https://raw.githubusercontent.com/mudrod/mudrod_ontologies/master/dif_v9.8.2.owl/");
+    turtle.prefix("eskg", "http://cor.esipfed.org/ont/eskg/");
+    // the parser starts and finishes its destination, the writer must only
+    // be finished once every triple has been written
+    RDFDataMgr.parse(new StreamRDFWrapper(turtle) {
+      @Override
+      public void start() {
+        // started above
+      }
+
+      @Override
+      public void finish() {
+        // finished below
+      }
+    }, ntriples.getPath(), Lang.NTRIPLES);
+    turtle.finish();
+  }
+
+  /** the current line of a partial */
+  private static final class Cursor implements Comparable<Cursor> {
+
+    private final File partial;
+
+    private final BufferedReader reader;
+
+    private String line;
+
+    private Cursor(File partial, BufferedReader reader) {
+      this.partial = partial;
+      this.reader = reader;
+    }
+
+    /**
+     * Reads the next triple, skipping blank lines and comments.
+     *
+     * @return false at the end of the partial
+     */
+    private boolean advance() throws IOException {
+      String previous = line;
+      do {
+        line = reader.readLine();
+      } while (line != null && (line.trim().isEmpty() || line.startsWith("#")));
+      if (line != null && previous != null && line.compareTo(previous) < 0) {
+        throw new IOException(partial + " is not sorted, write partial graphs with a " + NTRIPLES_EXTENSION + " eskg.file.name");
+      }
+      return line != null;
+    }
+
+    @Override
+    public int compareTo(Cursor other) {
+      return line.compareTo(other.line);
+    }
+
+  }
+
+  /**
+   * Merges the partial graphs given as arguments.
+   * <ul>
+   * <li><b>output</b>; The merged graph, written as N-Triples if its name ends
+   * with .nt and as Turtle otherwise.</li>
+   * </ul>
+   *
+   * @param args
+   *          the output option followed by the partial graphs
+   * @throws IOException
+   *           if the partials cannot be merged
+   */
+  public static void main(String[] args) throws IOException {
+    Option oOpt = Option.builder().hasArg(true).numberOfArgs(1).argName("file").required(true).longOpt(OUTPUT_OPT)
+        .desc("The merged graph, written as N-Triples if its name ends with .nt and as Turtle otherwise.").build();
+    Options opts = new Options();
+    opts.addOption(oOpt);
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(opts, args);
+    } catch (ParseException e) {
+      LOG.error("Failed to parse command line {}", e.getMessage());
+      new HelpFormatter().printHelp(NTriplesMerger.class.getSimpleName() + " --output <file> <partial>...", opts);
+      System.exit(-1);
+    }
+    List<File> partials = new ArrayList<>();
+    for (String partial : cmd.getArgs()) {
+      partials.add(new File(partial));
+    }
+    File output = new File(cmd.getOptionValue(OUTPUT_OPT));
+    merge(partials, output);
+    LOG.info("Successfully wrote merged graph to {}.", output);
+  }
+
+}
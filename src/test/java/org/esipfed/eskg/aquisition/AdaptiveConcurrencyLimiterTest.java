@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Test;
+
+/**
+ * Parses <code>Retry-After</code> values for the {@link AdaptiveConcurrencyLimiter}.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+  @Test
+  public void testRetryAfterSeconds() {
+    assertEquals(120000, AdaptiveConcurrencyLimiter.retryAfterMillis(" 120 "));
+  }
+
+  @Test
+  public void testRetryAfterHttpDate() {
+    long delay = AdaptiveConcurrencyLimiter.retryAfterMillis(DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000)));
+    // HTTP-dates are only precise to the second
+    assertTrue(String.valueOf(delay), delay > 58000 && delay <= 60000);
+  }
+
+  @Test
+  public void testRetryAfterPassedDate() {
+    assertEquals(0, AdaptiveConcurrencyLimiter.retryAfterMillis(DateUtils.formatDate(new Date(System.currentTimeMillis() - 60000))));
+  }
+
+  @Test
+  public void testMalformedRetryAfter() {
+    assertEquals(-1, AdaptiveConcurrencyLimiter.retryAfterMillis("soon"));
+  }
+
+}
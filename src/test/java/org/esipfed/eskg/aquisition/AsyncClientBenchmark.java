@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.esipfed.eskg.structures.DIF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the time taken by {@link AsyncPODAACWebServiceClient} and by the
+ * blocking {@link PODAACWebServiceClient} to search a {@link MockPODAACServer}
+ * and retrieve and parse every record, without mapping them. The blocking
+ * client is run with each of the given thread counts, its concurrency limit
+ * and connection pool pinned to that count, and the asynchronous client with
+ * its configured I/O and parse threads. Every client is created afresh for
+ * its run, and each is run once beforehand such that class loading and
+ * compilation are not measured.
+ */
+public class AsyncClientBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncClientBenchmark.class);
+
+  private static final String RECORDS_OPT = "records";
+  private static final String LATENCY_OPT = "latency";
+  private static final String THREADS_OPT = "threads";
+  private static final String SERVER_THREADS_OPT = "serverThreads";
+
+  private AsyncClientBenchmark() {
+    // utility class
+  }
+
+  /**
+   * @return the number of records retrieved by the blocking client with the
+   *         given number of threads
+   */
+  private static int runBlocking(Properties props, int threads) throws IOException {
+    Properties overrides = new Properties();
+    overrides.putAll(props);
+    String limit = Integer.toString(threads);
+    overrides.setProperty("eskg.harvest.concurrency", limit);
+    overrides.setProperty("eskg.harvest.minConcurrency", limit);
+    overrides.setProperty("eskg.harvest.initialConcurrency", limit);
+    overrides.setProperty("eskg.http.maxTotal", limit);
+    overrides.setProperty("eskg.http.maxPerRoute", limit);
+    try (PODAACWebServiceClient client = new PODAACWebServiceClient(overrides)) {
+      List<String> gcmdLinks = new ArrayList<>();
+      client.searchDatasets(gcmdLinks::add);
+      return client.retrieveGCMDRecords(gcmdLinks).size();
+    }
+  }
+
+  /**
+   * @return the number of records retrieved by the asynchronous client
+   */
+  private static int runAsync(Properties props) throws IOException {
+    try (AsyncPODAACWebServiceClient client = new AsyncPODAACWebServiceClient(props)) {
+      List<DIF> difs = client.fetchDatasets().join();
+      return difs.size();
+    }
+  }
+
+  /**
+   * <ul>
+   * <li><b>records</b>; Number of datasets in the mock catalog, 4000 by
+   * default.</li>
+   * <li><b>latency</b>; Delay in milliseconds before each response, 20 by
+   * default.</li>
+   * <li><b>threads</b>; Comma separated thread counts the blocking client is
+   * run with, 64,256 by default.</li>
+   * <li><b>serverThreads</b>; Number of threads serving requests, 256 by
+   * default, such that the server does not limit either client.</li>
+   * </ul>
+   *
+   * @param args
+   *          includes options as per description
+   * @throws IOException
+   *           if the catalog cannot be searched
+   */
+  public static void main(String[] args) throws IOException {
+    Options opts = new Options();
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("records").required(false).longOpt(RECORDS_OPT)
+        .desc("Number of datasets in the mock catalog, 4000 by default.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("millis").required(false).longOpt(LATENCY_OPT)
+        .desc("Delay in milliseconds before each response, 20 by default.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("threads").required(false).longOpt(THREADS_OPT)
+        .desc("Comma separated thread counts the blocking client is run with, 64,256 by default.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("threads").required(false).longOpt(SERVER_THREADS_OPT)
+        .desc("Number of threads serving requests, 256 by default.").build());
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(opts, args);
+    } catch (ParseException e) {
+      LOG.error("Failed to parse command line {}", e.getMessage());
+      new HelpFormatter().printHelp(AsyncClientBenchmark.class.getSimpleName(), opts);
+      System.exit(-1);
+    }
+    List<Integer> threadCounts = new ArrayList<>();
+    for (String threads : cmd.getOptionValue(THREADS_OPT, "64,256").split(",")) {
+      if (!threads.trim().isEmpty()) {
+        threadCounts.add(Integer.parseInt(threads.trim()));
+      }
+    }
+
+    // the JDK server otherwise delays small responses through Nagle's
+    // algorithm, adding tens of milliseconds to every request
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    MockPODAACServer server = new MockPODAACServer(0)
+        .setCatalogSize(Integer.parseInt(cmd.getOptionValue(RECORDS_OPT, "4000")))
+        .setLatency(Long.parseLong(cmd.getOptionValue(LATENCY_OPT, "20")), 0)
+        .setThreads(Integer.parseInt(cmd.getOptionValue(SERVER_THREADS_OPT, "256")));
+    server.start();
+    try {
+      Properties props = new Properties();
+      props.setProperty("eskg.podaac.baseUrl", server.getBaseUrl());
+      // measure retrieval and parsing alone
+      props.setProperty("eskg.harvest.skipUnchanged", "false");
+      props.setProperty("eskg.harvest.hedging", "false");
+
+      // warm both clients up
+      runBlocking(props, threadCounts.get(0));
+      runAsync(props);
+
+      for (int threads : threadCounts) {
+        long start = System.nanoTime();
+        int records = runBlocking(props, threads);
+        LOG.info("Blocking client with {} threads retrieved {} records in {} ms", threads, records,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+      long start = System.nanoTime();
+      int records = runAsync(props);
+      LOG.info("Asynchronous client retrieved {} records in {} ms", records, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } finally {
+      server.stop();
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the heap allocated to retrieve and parse each GCMD record served
+ * by a {@link MockPODAACServer}, comparing the streamed path used by
+ * {@link PODAACWebServiceClient}, which hands the raw response body to the
+ * XML parser, with the decoded path it replaced, which read the body into a
+ * String line by line and encoded it again before parsing. Both paths share
+ * one {@link PooledHttpClient}, and the bytes allocated by the calling thread
+ * are read from the {@link com.sun.management.ThreadMXBean}, which JVMs other
+ * than HotSpot and OpenJDK may not provide.
+ */
+public class GCMDParseBenchmark {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GCMDParseBenchmark.class);
+
+  private static final String RECORDS_OPT = "records";
+  private static final String RECORDS_DIR_OPT = "recordsDir";
+
+
+  private GCMDParseBenchmark() {
+    // utility class
+  }
+
+  /** a way of reading a GCMD response body into a record */
+  @FunctionalInterface
+  private interface BodyReader {
+    Object read(InputStream body) throws IOException;
+  }
+
+  /** parses the raw body, as the client does */
+  private static Object streamed(InputStream body) throws IOException {
+    return PODAACWebServiceClient.parseGCMDXML(body);
+  }
+
+  /** decodes the body and encodes it again before parsing, as the client did */
+  private static Object decoded(InputStream body) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    StringBuilder result = new StringBuilder();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      result.append(line);
+    }
+    return PODAACWebServiceClient.parseGCMDXML(new ByteArrayInputStream(result.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * @return the mean number of bytes allocated by this thread to retrieve and
+   *         read each record
+   */
+  private static long measure(com.sun.management.ThreadMXBean threads, PooledHttpClient http, String baseUrl, int records,
+      BodyReader reader) throws IOException {
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < records; i++) {
+      HttpGet request = new HttpGet(baseUrl + MockPODAACServer.metadataPath(i));
+      http.execute(request, response -> {
+        try (InputStream body = response.getEntity().getContent()) {
+          return reader.read(body);
+        }
+      });
+    }
+    return (threads.getThreadAllocatedBytes(threadId) - before) / records;
+  }
+
+  /**
+   * <ul>
+   * <li><b>records</b>; Number of records read by each path, 500 by
+   * default.</li>
+   * <li><b>recordsDir</b>; Directory of DIF documents to serve instead of
+   * generated ones.</li>
+   * </ul>
+   *
+   * @param args
+   *          includes options as per description
+   * @throws IOException
+   *           if a record cannot be retrieved
+   */
+  public static void main(String[] args) throws IOException {
+    Options opts = new Options();
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("records").required(false).longOpt(RECORDS_OPT)
+        .desc("Number of records read by each path, 500 by default.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("dir").required(false).longOpt(RECORDS_DIR_OPT)
+        .desc("Directory of DIF documents to serve instead of generated ones.").build());
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(opts, args);
+    } catch (ParseException e) {
+      LOG.error("Failed to parse command line {}", e.getMessage());
+      new HelpFormatter().printHelp(GCMDParseBenchmark.class.getSimpleName(), opts);
+      System.exit(-1);
+    }
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean)
+        || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+      LOG.error("This JVM does not report the memory allocated by each thread.");
+      System.exit(-1);
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) threadBean;
+    threads.setThreadAllocatedMemoryEnabled(true);
+    int records = Integer.parseInt(cmd.getOptionValue(RECORDS_OPT, "500"));
+
+    MockPODAACServer server = new MockPODAACServer(0).setCatalogSize(records);
+    if (cmd.hasOption(RECORDS_DIR_OPT)) {
+      server.setRecordsDir(new File(cmd.getOptionValue(RECORDS_DIR_OPT)));
+    }
+    server.start();
+    try (PooledHttpClient http = new PooledHttpClient(PODAACWebServiceClient.loadProperties())) {
+      // warm both paths up such that class loading and compilation are not measured
+      measure(threads, http, server.getBaseUrl(), records, GCMDParseBenchmark::streamed);
+      measure(threads, http, server.getBaseUrl(), records, GCMDParseBenchmark::decoded);
+      long bodyBytes = http.getDecodedBytes();
+      long streamed = measure(threads, http, server.getBaseUrl(), records, GCMDParseBenchmark::streamed);
+      bodyBytes = (http.getDecodedBytes() - bodyBytes) / records;
+      long decoded = measure(threads, http, server.getBaseUrl(), records, GCMDParseBenchmark::decoded);
+      LOG.info("{} records of {} bytes: streamed {} bytes allocated per record, decoded {} bytes per record, {}% less.", records,
+          bodyBytes, streamed, decoded, String.format(Locale.ROOT, "%.1f", 100.0 * (decoded - streamed) / Math.max(1, decoded)));
+    } finally {
+      server.stop();
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Spools records to a {@link HarvestJournal} and resumes from it.
+ */
+public class HarvestJournalTest {
+
+  private static final String URL = "http://localhost/ws/metadata/dataset?datasetId=A&format=gcmd";
+
+  private static final byte[] BODY = "<DIF><Entry_ID>A</Entry_ID></DIF>".getBytes(StandardCharsets.UTF_8);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HarvestJournal openJournal(boolean sync) throws IOException {
+    Properties props = new Properties();
+    props.setProperty("eskg.journal.dir", folder.getRoot().getPath());
+    props.setProperty("eskg.journal.sync", Boolean.toString(sync));
+    return HarvestJournal.fromProperties(props);
+  }
+
+  private void assertResumes(boolean sync) throws IOException {
+    try (HarvestJournal journal = openJournal(sync)) {
+      try (HarvestJournal.Spool spool = journal.spool(URL, new ByteArrayInputStream(BODY))) {
+        IOUtils.toByteArray(spool);
+        spool.commit();
+      }
+      journal.parsed(URL, "A");
+    }
+    try (HarvestJournal journal = openJournal(sync)) {
+      assertEquals(1, journal.size());
+      assertTrue(journal.isFetched(URL));
+      try (InputStream spooled = journal.open(URL)) {
+        assertArrayEquals(BODY, IOUtils.toByteArray(spooled));
+      }
+      journal.complete();
+      assertFalse(journal.isFetched(URL));
+    }
+  }
+
+  @Test
+  public void testResumesFromSpooledRecord() throws IOException {
+    assertResumes(false);
+  }
+
+  @Test
+  public void testResumesFromSyncedSpooledRecord() throws IOException {
+    assertResumes(true);
+  }
+
+  @Test
+  public void testUncommittedSpoolIsDiscarded() throws IOException {
+    try (HarvestJournal journal = openJournal(true)) {
+      try (HarvestJournal.Spool spool = journal.spool(URL, new ByteArrayInputStream(BODY))) {
+        assertTrue(spool.read() != -1);
+      }
+      assertFalse(journal.isFetched(URL));
+    }
+    try (HarvestJournal journal = openJournal(true)) {
+      assertEquals(0, journal.size());
+    }
+  }
+
+}
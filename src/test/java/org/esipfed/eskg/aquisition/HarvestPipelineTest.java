@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Runs records through a two stage {@link HarvestPipeline}.
+ */
+public class HarvestPipelineTest {
+
+  private static final int RECORDS = 3000;
+
+  private final AtomicLong sunk = new AtomicLong();
+
+  /**
+   * @return a pipeline whose second stage is slow enough that every worker is
+   *         still running shortly after records start to arrive
+   */
+  private HarvestPipeline<Integer, Integer> startPipeline() {
+    HarvestPipeline<Integer, Integer> pipeline = HarvestPipeline.<Integer> source(4)
+        .stage("a", 2, 4, record -> record + 1)
+        .stage("b", 1, 4, record -> {
+          TimeUnit.MICROSECONDS.sleep(100);
+          return record;
+        });
+    pipeline.start("map", record -> sunk.incrementAndGet());
+    return pipeline;
+  }
+
+  private static Thread submitAll(HarvestPipeline<Integer, Integer> pipeline) {
+    Thread submitter = new Thread(() -> {
+      for (int i = 0; i < RECORDS; i++) {
+        if (!pipeline.submit(i)) {
+          return;
+        }
+      }
+      pipeline.complete();
+    });
+    submitter.start();
+    return submitter;
+  }
+
+  @Test(timeout = 30000)
+  public void testEveryRecordReachesTheSink() throws InterruptedException {
+    HarvestPipeline<Integer, Integer> pipeline = startPipeline();
+    submitAll(pipeline).join();
+    pipeline.await();
+    assertEquals(RECORDS, sunk.get());
+  }
+
+  @Test(timeout = 30000)
+  public void testFailedRecordsAreDropped() throws InterruptedException {
+    HarvestPipeline<Integer, Integer> pipeline = HarvestPipeline.<Integer> source(4).stage("a", 2, 4, record -> {
+      if (record % 10 == 0) {
+        throw new IllegalStateException("failed " + record);
+      }
+      return record;
+    });
+    pipeline.start("map", record -> sunk.incrementAndGet());
+    submitAll(pipeline).join();
+    pipeline.await();
+    assertEquals(RECORDS - RECORDS / 10, sunk.get());
+  }
+
+  /**
+   * Interrupts a single worker of a running pipeline, which must still pass
+   * the end of the records downstream such that {@link HarvestPipeline#await()}
+   * returns rather than hanging.
+   */
+  private void assertEndsAfterInterrupting(String worker) throws InterruptedException {
+    HarvestPipeline<Integer, Integer> pipeline = startPipeline();
+    Thread submitter = submitAll(pipeline);
+    while (sunk.get() == 0) {
+      Thread.sleep(1);
+    }
+    int interrupted = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals(worker)) {
+        thread.interrupt();
+        interrupted++;
+      }
+    }
+    assertEquals(1, interrupted);
+    pipeline.await();
+    submitter.join();
+    assertTrue(sunk.get() < RECORDS);
+  }
+
+  @Test(timeout = 30000)
+  public void testInterruptedFirstStageWorkerEndsPipeline() throws InterruptedException {
+    assertEndsAfterInterrupting("eskg-a-1");
+  }
+
+  @Test(timeout = 30000)
+  public void testInterruptedLastStageWorkerEndsPipeline() throws InterruptedException {
+    assertEndsAfterInterrupting("eskg-b-0");
+  }
+
+  @Test(timeout = 30000)
+  public void testInterruptedSinkEndsPipeline() throws InterruptedException {
+    assertEndsAfterInterrupting("eskg-map-0");
+  }
+
+}
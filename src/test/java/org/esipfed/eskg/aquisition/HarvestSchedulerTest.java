@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Harvests two instances of the PO.DAAC source, each configured against its
+ * own {@link MockPODAACServer}, into a single model.
+ */
+public class HarvestSchedulerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MockPODAACServer primary;
+
+  private MockPODAACServer mirror;
+
+  @Before
+  public void setUp() throws IOException {
+    primary = new MockPODAACServer(0).setCatalogSize(30).setMaxItemsPerPage(20).start();
+    mirror = new MockPODAACServer(0).setCatalogSize(50).setMaxItemsPerPage(20).start();
+  }
+
+  @After
+  public void tearDown() {
+    primary.stop();
+    mirror.stop();
+  }
+
+  private Properties schedulerProperties(File model) {
+    Properties props = new Properties();
+    props.setProperty("eskg.storage", "file");
+    props.setProperty("eskg.file.name", model.getPath());
+    props.setProperty("eskg.harvest.sources", "podaac,mirror");
+    props.setProperty("eskg.source.podaac.podaac.baseUrl", primary.getBaseUrl());
+    props.setProperty("eskg.source.mirror.type", "podaac");
+    props.setProperty("eskg.source.mirror.podaac.baseUrl", mirror.getBaseUrl());
+    return props;
+  }
+
+  @Test
+  public void testHarvestsEveryInstanceOfASource() throws IOException {
+    File model = new File(folder.getRoot(), "podaac.ttl");
+    try (HarvestScheduler scheduler = new HarvestScheduler(schedulerProperties(model))) {
+      assertEquals(80, scheduler.harvest());
+    }
+    // the mirror serves a superset of the primary catalog
+    assertEquals(50, PODAACWebServiceClientTest.countMapped(PODAACWebServiceClientTest.readModel(model)));
+    assertTrue(primary.getRequests() > 0);
+    assertTrue(mirror.getRequests() > 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownSourceTypeIsRejected() {
+    Properties props = new Properties();
+    props.setProperty("eskg.harvest.sources", "podaac,mirror");
+    props.setProperty("eskg.source.mirror.type", "nonexistent");
+    HarvestScheduler.discoverSources(props);
+  }
+
+}
@@ -0,0 +1,557 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the PO.DAAC Dataset Search and Dataset Metadata
+ * WebServices, used to load and soak test the acquisition path without a live
+ * service. The server presents a synthetic catalog of a configurable number of
+ * datasets through a paged Atom Dataset Search endpoint, and serves a GCMD DIF
+ * document for each dataset. DIF documents are either generated or, when a
+ * directory of recorded documents is supplied, taken from it in turn with the
+ * <code>Entry_ID</code> rewritten to the synthetic dataset. Dataset Search
+ * honours the <code>bbox</code> parameter. Every response can
+ * be delayed by a fixed latency plus an exponentially distributed jitter, and
+ * a proportion of requests can be failed with
+ * <code>503 Service Unavailable</code>. Responses are gzip encoded when the
+ * client accepts it. Point the {@link PODAACWebServiceClient} at the server by
+ * setting <code>eskg.podaac.baseUrl</code> to {@link #getBaseUrl()}. The
+ * server is part of the test sources, it is started by the harvest tests and
+ * can be run on its own from the test classpath through
+ * {@link #main(String[])}.
+ */
+public class MockPODAACServer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MockPODAACServer.class);
+
+  private static final String SEARCH_PATH = "/ws/search/dataset/";
+  private static final String METADATA_PATH = "/ws/metadata/dataset";
+  private static final String DATASET_ID_PREFIX = "PODAAC-MOCK-";
+
+  private static final String PORT_OPT = "port";
+  private static final String CATALOG_OPT = "catalogSize";
+  private static final String PAGE_OPT = "maxItemsPerPage";
+  private static final String LATENCY_OPT = "latency";
+  private static final String JITTER_OPT = "jitter";
+  private static final String ERROR_OPT = "errorRate";
+  private static final String THREADS_OPT = "threads";
+  private static final String RECORDS_OPT = "recordsDir";
+
+  private final int port;
+
+  private int catalogSize = 1000;
+
+  private int maxItemsPerPage = 400;
+
+  private long latencyMillis;
+
+  private long jitterMillis;
+
+  private double errorRate;
+
+  private final Set<Integer> failingRecords = ConcurrentHashMap.newKeySet();
+
+  private int threads = 32;
+
+  private final List<String> recordedDIFs = new ArrayList<>();
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  private final AtomicLong requests = new AtomicLong();
+
+  private final AtomicLong errors = new AtomicLong();
+
+  private long startedAt;
+
+  /**
+   * @param port
+   *          the port to listen on, or 0 for any free port
+   */
+  public MockPODAACServer(int port) {
+    this.port = port;
+  }
+
+  /**
+   * @param catalogSize
+   *          the number of datasets in the catalog
+   */
+  public MockPODAACServer setCatalogSize(int catalogSize) {
+    this.catalogSize = catalogSize;
+    return this;
+  }
+
+  /**
+   * @param maxItemsPerPage
+   *          the largest page the Dataset Search endpoint returns, regardless
+   *          of the <code>itemsPerPage</code> requested
+   */
+  public MockPODAACServer setMaxItemsPerPage(int maxItemsPerPage) {
+    this.maxItemsPerPage = maxItemsPerPage;
+    return this;
+  }
+
+  /**
+   * @param latencyMillis
+   *          the fixed delay before each response
+   * @param jitterMillis
+   *          the mean of an exponentially distributed delay added to the fixed
+   *          delay, giving a long tail of slow responses
+   */
+  public MockPODAACServer setLatency(long latencyMillis, long jitterMillis) {
+    this.latencyMillis = latencyMillis;
+    this.jitterMillis = jitterMillis;
+    return this;
+  }
+
+  /**
+   * @param errorRate
+   *          the proportion, between 0 and 1, of requests failed with
+   *          <code>503 Service Unavailable</code>
+   */
+  public MockPODAACServer setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * @param indexes
+   *          the datasets whose GCMD record is always failed with
+   *          <code>503 Service Unavailable</code>, replacing any set before,
+   *          whilst the datasets are still listed by the Dataset Search
+   */
+  public MockPODAACServer setFailingRecords(int... indexes) {
+    failingRecords.clear();
+    for (int index : indexes) {
+      failingRecords.add(index);
+    }
+    return this;
+  }
+
+  /**
+   * @param threads
+   *          the number of threads serving requests
+   */
+  public MockPODAACServer setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Serves the DIF documents in a directory rather than generated ones.
+   *
+   * @param recordsDir
+   *          a directory of GCMD DIF XML documents
+   * @throws IOException
+   *           if the documents cannot be read
+   */
+  public MockPODAACServer setRecordsDir(File recordsDir) throws IOException {
+    File[] files = recordsDir.listFiles((dir, name) -> name.endsWith(".xml"));
+    if (files == null || files.length == 0) {
+      throw new IOException("No DIF documents found in " + recordsDir);
+    }
+    Arrays.sort(files);
+    recordedDIFs.clear();
+    for (File file : files) {
+      recordedDIFs.add(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+    return this;
+  }
+
+  /**
+   * Starts serving requests.
+   *
+   * @return this server
+   * @throws IOException
+   *           if the port cannot be bound
+   */
+  public MockPODAACServer start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    server.createContext(SEARCH_PATH, this::handleSearch);
+    server.createContext(METADATA_PATH, this::handleMetadata);
+    executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "eskg-mock-podaac");
+      t.setDaemon(true);
+      return t;
+    });
+    server.setExecutor(executor);
+    server.start();
+    startedAt = System.nanoTime();
+    LOG.info("Mock PO.DAAC serving {} datasets at {}", catalogSize, getBaseUrl());
+    return this;
+  }
+
+  /**
+   * Stops the server and logs the number of requests served.
+   */
+  public void stop() {
+    if (server == null) {
+      return;
+    }
+    server.stop(0);
+    executor.shutdownNow();
+    double seconds = Math.max(1, System.nanoTime() - startedAt) / 1e9;
+    LOG.info("Mock PO.DAAC served {} requests ({} failed) at {} requests/s", requests.get(), errors.get(),
+        String.format(Locale.ROOT, "%.1f", requests.get() / seconds));
+    server = null;
+  }
+
+  /**
+   * @return the base URL to set as <code>eskg.podaac.baseUrl</code>
+   */
+  public String getBaseUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * @return the number of requests received
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of requests failed on purpose
+   */
+  public long getErrors() {
+    return errors.get();
+  }
+
+  private void handleSearch(HttpExchange exchange) throws IOException {
+    if (!admit(exchange)) {
+      return;
+    }
+    Map<String, String> params = queryParams(exchange);
+    int startIndex = parseInt(params.get("startIndex"), 0);
+    int itemsPerPage = Math.min(parseInt(params.get("itemsPerPage"), 10), maxItemsPerPage);
+    int[] matches = params.containsKey("bbox") ? datasetsWithin(params.get("bbox")) : null;
+    int totalResults = matches != null ? matches.length : catalogSize;
+    int end = Math.min(totalResults, startIndex + itemsPerPage);
+
+    StringBuilder feed = new StringBuilder(512 + 512 * Math.max(0, end - startIndex));
+    feed.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:opensearch=\"http://a9.com/-/spec/opensearch/1.1/\">\n")
+        .append("<title>PO.DAAC Dataset Search Results</title>\n")
+        .append("<opensearch:totalResults>").append(totalResults).append("</opensearch:totalResults>\n")
+        .append("<opensearch:startIndex>").append(startIndex).append("</opensearch:startIndex>\n")
+        .append("<opensearch:itemsPerPage>").append(itemsPerPage).append("</opensearch:itemsPerPage>\n");
+    for (int i = startIndex; i < end; i++) {
+      int index = matches != null ? matches[i] : i;
+      String datasetId = datasetId(index);
+      feed.append("<entry>\n<title>Mock dataset ").append(index).append("</title>\n")
+          .append("<id>").append(datasetId).append("</id>\n")
+          .append("<link href=\"").append(getBaseUrl()).append(METADATA_PATH).append("?datasetId=").append(datasetId)
+          .append("&amp;format=gcmd\" rel=\"enclosure\" type=\"application/xml\" title=\"GCMD Metadata\"/>\n")
+          .append("</entry>\n");
+    }
+    feed.append("</feed>\n");
+    respond(exchange, 200, "application/atom+xml", feed.toString());
+  }
+
+  private void handleMetadata(HttpExchange exchange) throws IOException {
+    if (!admit(exchange)) {
+      return;
+    }
+    String datasetId = queryParams(exchange).get("datasetId");
+    int index = datasetId != null && datasetId.startsWith(DATASET_ID_PREFIX)
+        ? parseInt(datasetId.substring(DATASET_ID_PREFIX.length()), -1) : -1;
+    if (index < 0 || index >= catalogSize) {
+      respond(exchange, 404, "text/plain", "Unknown dataset " + datasetId);
+      return;
+    }
+    if (failingRecords.contains(index)) {
+      errors.incrementAndGet();
+      respond(exchange, 503, "text/plain", "Service temporarily unavailable");
+      return;
+    }
+    String etag = "\"" + datasetId + "\"";
+    exchange.getResponseHeaders().set("ETag", etag);
+    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    String dif = recordedDIFs.isEmpty() ? syntheticDIF(index, datasetId)
+        : recordedDIFs.get(index % recordedDIFs.size()).replaceFirst("<Entry_ID>[^<]*</Entry_ID>",
+            "<Entry_ID>" + datasetId + "</Entry_ID>");
+    respond(exchange, 200, "application/xml", dif);
+  }
+
+  /**
+   * Counts the request, applies the configured latency and fails the request
+   * at the configured error rate.
+   *
+   * @return false if the request has been failed
+   */
+  private boolean admit(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long delay = latencyMillis;
+    if (jitterMillis > 0) {
+      delay += (long) (-jitterMillis * Math.log(1 - random.nextDouble()));
+    }
+    if (delay > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (errorRate > 0 && random.nextDouble() < errorRate) {
+      errors.incrementAndGet();
+      respond(exchange, 503, "text/plain", "Service temporarily unavailable");
+      return false;
+    }
+    return true;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+    String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(bytes);
+      }
+      bytes = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static Map<String, String> queryParams(HttpExchange exchange) throws IOException {
+    Map<String, String> params = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return params;
+    }
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  private static int parseInt(String value, int defaultValue) {
+    try {
+      return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Finds the datasets whose synthetic spatial coverage intersects a bounding
+   * box given as <code>west,south,east,north</code>.
+   */
+  private int[] datasetsWithin(String bbox) {
+    String[] corners = bbox.split(",");
+    if (corners.length != 4) {
+      return new int[0];
+    }
+    double west;
+    double south;
+    double east;
+    double north;
+    try {
+      west = Double.parseDouble(corners[0]);
+      south = Double.parseDouble(corners[1]);
+      east = Double.parseDouble(corners[2]);
+      north = Double.parseDouble(corners[3]);
+    } catch (NumberFormatException e) {
+      return new int[0];
+    }
+    List<Integer> matches = new ArrayList<>();
+    for (int index = 0; index < catalogSize; index++) {
+      int datasetWest = index % 360 - 180;
+      int datasetSouth = index % 180 - 90;
+      if (datasetWest <= east && datasetWest + 1 >= west && datasetSouth <= north && datasetSouth + 1 >= south) {
+        matches.add(index);
+      }
+    }
+    return matches.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * @return the path and query of the GCMD Metadata link of a dataset
+   */
+  static String metadataPath(int index) {
+    return METADATA_PATH + "?datasetId=" + datasetId(index) + "&format=gcmd";
+  }
+
+  /**
+   * @return the datasetId of a dataset, which is also its <code>Entry_ID</code>
+   *         unless recorded documents are served
+   */
+  static String datasetId(int index) {
+    return String.format(Locale.ROOT, "%s%07d", DATASET_ID_PREFIX, index);
+  }
+
+  /**
+   * Generates a DIF document populating every element read by the
+   * {@link org.esipfed.eskg.mapper.PODAACWebServiceObjectMapper}.
+   */
+  private static String syntheticDIF(int index, String datasetId) {
+    int west = index % 360 - 180;
+    int south = index % 180 - 90;
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<DIF xmlns=\"http://gcmd.gsfc.nasa.gov/Aboutus/xml/dif/\">\n"
+        + "<Entry_ID>" + datasetId + "</Entry_ID>\n"
+        + "<Entry_Title>Mock Sea Surface Temperature Dataset " + index + "</Entry_Title>\n"
+        + "<Data_Set_Citation><Dataset_Creator>Mock Creator</Dataset_Creator>"
+        + "<Dataset_Title>Mock Dataset " + index + "</Dataset_Title>"
+        + "<Dataset_Release_Date>2017-01-01</Dataset_Release_Date><Dataset_Publisher>PO.DAAC</Dataset_Publisher>"
+        + "<Version>1.0</Version><Online_Resource>https://podaac.jpl.nasa.gov/dataset/" + datasetId + "</Online_Resource>"
+        + "</Data_Set_Citation>\n"
+        + "<Personnel><Role>Technical Contact</Role><First_Name>Mock</First_Name><Last_Name>Contact</Last_Name>"
+        + "<Email>mock@example.org</Email></Personnel>\n"
+        + "<Parameters><Category>EARTH SCIENCE</Category><Topic>OCEANS</Topic><Term>OCEAN TEMPERATURE</Term>"
+        + "<Variable_Level_1>SEA SURFACE TEMPERATURE</Variable_Level_1></Parameters>\n"
+        + "<ISO_Topic_Category>Oceans</ISO_Topic_Category>\n"
+        + "<Sensor_Name><Short_Name>MODIS</Short_Name><Long_Name>Moderate-Resolution Imaging Spectroradiometer</Long_Name></Sensor_Name>\n"
+        + "<Source_Name><Short_Name>AQUA</Short_Name><Long_Name>Earth Observing System, AQUA</Long_Name></Source_Name>\n"
+        + "<Temporal_Coverage><Start_Date>2002-07-04</Start_Date><Stop_Date>2017-12-31</Stop_Date></Temporal_Coverage>\n"
+        + "<Spatial_Coverage><Southernmost_Latitude>" + south + "</Southernmost_Latitude>"
+        + "<Northernmost_Latitude>" + (south + 1) + "</Northernmost_Latitude>"
+        + "<Westernmost_Longitude>" + west + "</Westernmost_Longitude>"
+        + "<Easternmost_Longitude>" + (west + 1) + "</Easternmost_Longitude></Spatial_Coverage>\n"
+        + "<Location><Location_Category>GEOGRAPHIC REGION</Location_Category><Location_Type>GLOBAL OCEAN</Location_Type></Location>\n"
+        + "<Data_Resolution><Latitude_Resolution>0.04</Latitude_Resolution><Longitude_Resolution>0.04</Longitude_Resolution>"
+        + "<Temporal_Resolution>Daily</Temporal_Resolution></Data_Resolution>\n"
+        + "<Project><Short_Name>MOCK</Short_Name><Long_Name>Mock Project</Long_Name></Project>\n"
+        + "<Access_Constraints>None</Access_Constraints>\n"
+        + "<Use_Constraints>None</Use_Constraints>\n"
+        + "<Data_Set_Language>English</Data_Set_Language>\n"
+        + "<Data_Center><Data_Center_Name><Short_Name>NASA/JPL/PODAAC</Short_Name>"
+        + "<Long_Name>Physical Oceanography Distributed Active Archive Center</Long_Name></Data_Center_Name>"
+        + "<Data_Center_URL>https://podaac.jpl.nasa.gov/</Data_Center_URL>"
+        + "<Personnel><Role>Data Center Contact</Role><First_Name>PO.DAAC</First_Name><Last_Name>User Services</Last_Name>"
+        + "<Email>podaac@example.org</Email></Personnel></Data_Center>\n"
+        + "<Summary><Abstract>A synthetic dataset served by the mock PO.DAAC server.</Abstract></Summary>\n"
+        + "<Metadata_Name>CEOS IDN DIF</Metadata_Name>\n"
+        + "<Metadata_Version>9.7</Metadata_Version>\n"
+        + "<DIF_Creation_Date>2017-01-01</DIF_Creation_Date>\n"
+        + "<Last_DIF_Revision_Date>2017-06-01</Last_DIF_Revision_Date>\n"
+        + "<DIF_Revision_History>Generated.</DIF_Revision_History>\n"
+        + "</DIF>\n";
+  }
+
+  /**
+   * <ul>
+   * <li><b>port</b>; Port to listen on, defaults to 8080.</li>
+   * <li><b>catalogSize</b>; Number of datasets in the catalog.</li>
+   * <li><b>maxItemsPerPage</b>; Largest Dataset Search page returned.</li>
+   * <li><b>latency</b>; Fixed delay in milliseconds before each response.</li>
+   * <li><b>jitter</b>; Mean exponential delay in milliseconds added to each
+   * response.</li>
+   * <li><b>errorRate</b>; Proportion of requests failed with HTTP 503.</li>
+   * <li><b>threads</b>; Number of threads serving requests.</li>
+   * <li><b>recordsDir</b>; Directory of DIF documents to serve instead of
+   * generated ones.</li>
+   * </ul>
+   *
+   * @param args
+   *          includes options as per description
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Options opts = new Options();
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("port").required(false).longOpt(PORT_OPT)
+        .desc("Port to listen on, defaults to 8080.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("size").required(false).longOpt(CATALOG_OPT)
+        .desc("Number of datasets in the catalog.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("items").required(false).longOpt(PAGE_OPT)
+        .desc("Largest Dataset Search page returned.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("millis").required(false).longOpt(LATENCY_OPT)
+        .desc("Fixed delay in milliseconds before each response.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("millis").required(false).longOpt(JITTER_OPT)
+        .desc("Mean exponential delay in milliseconds added to each response.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("rate").required(false).longOpt(ERROR_OPT)
+        .desc("Proportion of requests failed with HTTP 503.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("threads").required(false).longOpt(THREADS_OPT)
+        .desc("Number of threads serving requests.").build());
+    opts.addOption(Option.builder().hasArg(true).numberOfArgs(1).argName("dir").required(false).longOpt(RECORDS_OPT)
+        .desc("Directory of DIF documents to serve instead of generated ones.").build());
+
+    CommandLine cmd = null;
+    try {
+      cmd = new DefaultParser().parse(opts, args);
+    } catch (ParseException e) {
+      LOG.error("Failed to parse command line {}", e.getMessage());
+      new HelpFormatter().printHelp(MockPODAACServer.class.getSimpleName(), opts);
+      System.exit(-1);
+    }
+
+    MockPODAACServer server = new MockPODAACServer(Integer.parseInt(cmd.getOptionValue(PORT_OPT, "8080")))
+        .setLatency(Long.parseLong(cmd.getOptionValue(LATENCY_OPT, "0")), Long.parseLong(cmd.getOptionValue(JITTER_OPT, "0")))
+        .setErrorRate(Double.parseDouble(cmd.getOptionValue(ERROR_OPT, "0")));
+    if (cmd.hasOption(CATALOG_OPT)) {
+      server.setCatalogSize(Integer.parseInt(cmd.getOptionValue(CATALOG_OPT)));
+    }
+    if (cmd.hasOption(PAGE_OPT)) {
+      server.setMaxItemsPerPage(Integer.parseInt(cmd.getOptionValue(PAGE_OPT)));
+    }
+    if (cmd.hasOption(THREADS_OPT)) {
+      server.setThreads(Integer.parseInt(cmd.getOptionValue(THREADS_OPT)));
+    }
+    if (cmd.hasOption(RECORDS_OPT)) {
+      server.setRecordsDir(new File(cmd.getOptionValue(RECORDS_OPT)));
+    }
+    server.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    Thread.currentThread().join();
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.esipfed.eskg.aquisition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Harvests a {@link MockPODAACServer} catalog spanning several Dataset Search
+ * pages and checks every dataset reaches the written model.
+ */
+public class PODAACWebServiceClientTest {
+
+  static final String PODAAC_DATASET = "http://cor.esipfed.org/ont/eskg/";
+
+  private static final int CATALOG_SIZE = 120;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MockPODAACServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockPODAACServer(0).setCatalogSize(CATALOG_SIZE).setMaxItemsPerPage(50).start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  /**
+   * @return properties harvesting the mock server into a Turtle file
+   */
+  static Properties harvestProperties(MockPODAACServer server, File model) {
+    Properties props = new Properties();
+    props.setProperty("eskg.podaac.baseUrl", server.getBaseUrl());
+    props.setProperty("eskg.storage", "file");
+    props.setProperty("eskg.file.name", model.getPath());
+    props.setProperty("eskg.harvest.concurrency", "4");
+    return props;
+  }
+
+  static Model readModel(File model) {
+    Model rdf = ModelFactory.createDefaultModel();
+    rdf.read(model.toURI().toString(), "TURTLE");
+    return rdf;
+  }
+
+  static void assertMapped(Model rdf, int index) {
+    String entryId = MockPODAACServer.datasetId(index);
+    assertTrue(entryId + " should be in the model", rdf.containsResource(ResourceFactory.createResource(PODAAC_DATASET + entryId)));
+  }
+
+  private void assertHarvested(Properties props, File model) throws IOException {
+    harvest(props);
+    assertTrue(model.isFile());
+    Model rdf = readModel(model);
+    for (int i = 0; i < CATALOG_SIZE; i++) {
+      assertMapped(rdf, i);
+    }
+    assertEquals(CATALOG_SIZE, countMapped(rdf));
+  }
+
+  @Test
+  public void testHarvestMapsEveryDataset() throws IOException {
+    File model = new File(folder.getRoot(), "podaac.ttl");
+    assertHarvested(harvestProperties(server, model), model);
+  }
+
+  @Test
+  public void testPipelinedHarvestMapsEveryDataset() throws IOException {
+    File model = new File(folder.getRoot(), "podaac.ttl");
+    Properties props = harvestProperties(server, model);
+    props.setProperty("eskg.harvest.pipeline", "true");
+    assertHarvested(props, model);
+  }
+
+  static int countMapped(Model rdf) {
+    return rdf.listSubjectsWithProperty(rdf.createProperty("http://www.w3.org/1999/02/22-rdf-syntax-ns#type")).filterKeep(
+        s -> s.isURIResource() && s.getURI().startsWith(PODAAC_DATASET + "PODAAC-MOCK-")).toList().size();
+  }
+
+  private static void harvest(Properties props) throws IOException {
+    try (PODAACWebServiceClient client = new PODAACWebServiceClient(props)) {
+      client.fetchDatasets();
+    }
+  }
+
+  @Test
+  public void testIncrementalHarvestKeepsRecordsWhichFail() throws IOException {
+    assertIncrementalHarvestKeepsRecordsWhichFail(false);
+  }
+
+  @Test
+  public void testPipelinedIncrementalHarvestKeepsRecordsWhichFail() throws IOException {
+    assertIncrementalHarvestKeepsRecordsWhichFail(true);
+  }
+
+  private void assertIncrementalHarvestKeepsRecordsWhichFail(boolean pipelined) throws IOException {
+    File model = new File(folder.getRoot(), "podaac.ttl");
+    Properties props = harvestProperties(server, model);
+    props.setProperty("eskg.harvest.pipeline", Boolean.toString(pipelined));
+    props.setProperty("eskg.incremental", "true");
+    props.setProperty("eskg.harvest.retries", "0");
+    harvest(props);
+    assertEquals(CATALOG_SIZE, countMapped(readModel(model)));
+
+    // listed datasets whose record fails keep their previous individual
+    server.setFailingRecords(3, 70);
+    harvest(props);
+    Model rdf = readModel(model);
+    assertEquals(CATALOG_SIZE, countMapped(rdf));
+    assertMapped(rdf, 3);
+    assertMapped(rdf, 70);
+
+    // datasets no longer listed are removed even whilst others fail
+    server.setCatalogSize(100);
+    harvest(props);
+    rdf = readModel(model);
+    assertEquals(100, countMapped(rdf));
+    assertMapped(rdf, 70);
+    assertFalse(rdf.containsResource(ResourceFactory.createResource(PODAAC_DATASET + MockPODAACServer.datasetId(100))));
+
+    server.setFailingRecords();
+    server.setCatalogSize(90);
+    harvest(props);
+    assertEquals(90, countMapped(readModel(model)));
+  }
+
+  @Test
+  public void testTruncatedSearchPageFails() {
+    String feed = "<feed xmlns=\"http://www.w3.org/2005/Atom\"><totalResults>2</totalResults>"
+        + "<entry><link title=\"GCMD Metadata\" href=\"" + server.getBaseUrl() + "/ws/metadata/dataset?datasetId=A\"/></entry>"
+        + "<entry><link title=";
+    List<String> links = new ArrayList<>();
+    try {
+      PODAACWebServiceClient.parseDatasetSearchAtomXML(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)), links::add);
+      fail("A truncated Dataset Search page should not parse");
+    } catch (IOException e) {
+      assertEquals(1, links.size());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testInterruptedHarvestWritesNoModel() throws InterruptedException {
+    server.setLatency(50, 0);
+    File model = new File(folder.getRoot(), "podaac.ttl");
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread harvest = new Thread(() -> {
+      try (PODAACWebServiceClient client = new PODAACWebServiceClient(harvestProperties(server, model))) {
+        client.fetchDatasets();
+      } catch (Exception e) {
+        failure.set(e);
+      }
+    });
+    harvest.start();
+    Thread.sleep(500);
+    harvest.interrupt();
+    harvest.join();
+    assertTrue(String.valueOf(failure.get()), failure.get() instanceof InterruptedIOException
+        || failure.get() instanceof IOException && failure.get().getCause() instanceof InterruptedIOException);
+    assertFalse(model.exists());
+  }
+
+}